@@ -0,0 +1,274 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+// Append-only audit trail. Callers publish into a bounded ring buffer without locking or blocking;
+// one background thread drains it in batches and appends them to disk. When the ring is full the
+// event is dropped and counted, and the writer records the gap so a replay shows it. An idle writer
+// parks until the next event arrives.
+final class AuditLog implements AutoCloseable {
+
+    enum Type { CART_ADD, CART_REMOVE, CART_CLEAR, CHECKOUT, RESERVE, CANCEL, EXPIRE, PURCHASE, ORDER, LOGIN,
+        LOGIN_FAILED, REGISTER, DROPPED }
+
+    static final class Event {
+        final long time;
+        final Type type;
+        final String user;
+        final String subject;
+        final long amount;
+
+        Event(long time, Type type, String user, String subject, long amount) {
+            this.time = time;
+            this.type = type;
+            this.user = user;
+            this.subject = subject;
+            this.amount = amount;
+        }
+
+        @Override
+        public String toString() {
+            return Instant.ofEpochMilli(time) + " " + type + " user=" + user + " subject=" + subject + " amount=" + amount;
+        }
+    }
+
+    private static final int MAGIC = 0x53434131; // "SCA1"
+    private static final int MAX_BATCH = 4096;
+    // short naps before the writer parks for good, so a burst that pauses briefly is not woken per event
+    private static final int IDLE_NAPS = 100;
+    private static final Type[] TYPES = Type.values();
+
+    private final int mask;
+    private final long[] times;
+    private final byte[] types;
+    private final String[] users;
+    private final String[] subjects;
+    private final long[] amounts;
+    // slot i holds sequence s once published[i] == s; a claimed but unpublished slot still shows s - capacity
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private volatile long consumed = -1;
+    private final FileChannel out;
+    private final Thread writer;
+    private volatile boolean closing;
+    private volatile boolean sleeping;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong highWater = new AtomicLong();
+    private long written;
+    private long batches;
+    private long droppedLogged;
+
+    private AuditLog(int capacity, FileChannel out) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("Capacity must be a power of two");
+        mask = capacity - 1;
+        times = new long[capacity];
+        types = new byte[capacity];
+        users = new String[capacity];
+        subjects = new String[capacity];
+        amounts = new long[capacity];
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) published.set(i, i - (long) capacity);
+        this.out = out;
+        writer = new Thread(this::drainLoop, "smartcart-audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    static AuditLog open(Path file, int capacity) throws IOException {
+        FileChannel ch = FileChannel.open(file, CREATE, WRITE, READ);
+        if (ch.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(4).putInt(0, MAGIC);
+            while (header.hasRemaining()) ch.write(header);
+        }
+        ch.position(ch.size());
+        return new AuditLog(capacity, ch);
+    }
+
+    // events are consumed and counted but not stored
+    static AuditLog discarding() { return new AuditLog(1 << 12, null); }
+
+    boolean record(Type type, String user, String subject, long amount) {
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq + 1 - consumed > mask + 1 || closing) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+        seq++;
+        int i = (int) seq & mask;
+        times[i] = System.currentTimeMillis();
+        types[i] = (byte) type.ordinal();
+        users[i] = user == null ? "" : user;
+        subjects[i] = subject == null ? "" : subject;
+        amounts[i] = amount;
+        published.set(i, seq);
+        if (sleeping) LockSupport.unpark(writer);
+        long depth = seq - consumed;
+        if (depth > highWater.get()) highWater.accumulateAndGet(depth, Math::max);
+        return true;
+    }
+
+    long dropped() { return dropped.get(); }
+
+    long depth() { return claimed.get() - consumed; }
+
+    long highWater() { return highWater.get(); }
+
+    synchronized long written() { return written; }
+
+    synchronized String stats() {
+        return "audit: written=" + written + " batches=" + batches + " depth=" + depth() + " highWater=" + highWater()
+                + " capacity=" + (mask + 1) + " dropped=" + dropped();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (out != null) {
+            out.force(false);
+            out.close();
+        }
+    }
+
+    private void drainLoop() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        DataOutputStream data = new DataOutputStream(bytes);
+        int idle = 0;
+        while (true) {
+            long next = consumed + 1;
+            long last = next - 1;
+            bytes.reset();
+            try {
+                data.writeInt(0);
+                data.writeInt(0);
+                int count = 0;
+                long lost = dropped.get() - droppedLogged;
+                if (lost > 0) {
+                    writeEvent(data, System.currentTimeMillis(), Type.DROPPED.ordinal(), "", "", lost);
+                    droppedLogged += lost;
+                    count++;
+                }
+                while (count < MAX_BATCH) {
+                    int i = (int) (last + 1) & mask;
+                    if (published.get(i) != last + 1) break;
+                    writeEvent(data, times[i], types[i], users[i], subjects[i], amounts[i]);
+                    users[i] = null;
+                    subjects[i] = null;
+                    last++;
+                    count++;
+                }
+                if (count > 0) {
+                    // the slots can be reused as soon as their contents are encoded
+                    consumed = last;
+                    writeBatch(bytes, count);
+                    idle = 0;
+                    continue;
+                }
+            } catch (IOException e) {
+                System.err.println("SmartCart: audit write failed: " + e.getMessage());
+                consumed = last;
+            }
+            if (closing && claimed.get() == consumed) return;
+            if (idle++ < IDLE_NAPS) {
+                LockSupport.parkNanos(10_000L);
+                continue;
+            }
+            // publish the flag before the last look; a producer publishes its slot before reading the flag,
+            // so either this sees the event or the producer sees the flag and unparks
+            sleeping = true;
+            if (!pending()) LockSupport.park(this);
+            sleeping = false;
+        }
+    }
+
+    private boolean pending() {
+        long next = consumed + 1;
+        return published.get((int) next & mask) == next || closing || dropped.get() != droppedLogged;
+    }
+
+    private void writeBatch(ByteArrayOutputStream bytes, int count) throws IOException {
+        byte[] buf = bytes.toByteArray();
+        ByteBuffer b = ByteBuffer.wrap(buf);
+        int len = buf.length - 8;
+        CRC32 crc = new CRC32();
+        crc.update(buf, 8, len);
+        b.putInt(0, count);
+        b.putInt(4, len);
+        ByteBuffer tail = ByteBuffer.allocate(4).putInt(0, (int) crc.getValue());
+        synchronized (this) {
+            if (out != null) {
+                ByteBuffer[] parts = { b, tail };
+                while (tail.hasRemaining()) out.write(parts);
+            }
+            written += count;
+            batches++;
+        }
+    }
+
+    private static void writeEvent(DataOutputStream data, long time, int type, String user, String subject, long amount)
+            throws IOException {
+        data.writeLong(time);
+        data.writeByte(type);
+        data.writeUTF(user);
+        data.writeUTF(subject);
+        data.writeLong(amount);
+    }
+
+    // reads every complete batch; a torn batch at the end of the file is ignored
+    static long replay(Path file, Consumer<Event> sink) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(FileChannel.open(file, READ)), 1 << 16))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a SmartCart audit log: " + file);
+            long events = 0;
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] payload;
+                int count;
+                try {
+                    count = in.readInt();
+                    payload = new byte[in.readInt()];
+                    in.readFully(payload);
+                    crc.reset();
+                    crc.update(payload);
+                    if (in.readInt() != (int) crc.getValue()) return events;
+                } catch (EOFException | NegativeArraySizeException torn) {
+                    return events;
+                }
+                DataInputStream batch = new DataInputStream(new ByteArrayInputStream(payload));
+                for (int k = 0; k < count; k++) {
+                    sink.accept(new Event(batch.readLong(), TYPES[batch.readByte()], batch.readUTF(), batch.readUTF(),
+                            batch.readLong()));
+                    events++;
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: java AuditLog <audit.log>");
+            System.exit(2);
+        }
+        long n = replay(Path.of(args[0]), System.out::println);
+        System.err.println(n + " events");
+    }
+}
@@ -0,0 +1,380 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.DecimalFormat;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+// Micro-benchmarks for the hot paths, with no dependencies beyond the JDK:
+//   java Bench [--sizes 1000,100000] [--only prefix] [--out results.tsv] [--baseline old.tsv] [--threshold 10]
+// Each case runs timed batches after a warm-up; the reported score is the median ns/op over the
+// measured batches. With --baseline, cases slower than the threshold percentage are reported as
+// regressions and the exit status is 1.
+final class Bench {
+
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final int MEASURED_BATCHES = 10;
+    private static final long BATCH_NANOS = 200_000_000L;
+
+    // results feed into this so the JIT cannot drop the measured work
+    private static volatile long sink;
+
+    interface Op {
+        long run(int i);
+    }
+
+    static final class Result {
+        final String name;
+        final int size;
+        final double nsPerOp;
+        final double spread;
+
+        Result(String name, int size, double nsPerOp, double spread) {
+            this.name = name; this.size = size; this.nsPerOp = nsPerOp; this.spread = spread;
+        }
+
+        String key() { return name + "@" + size; }
+    }
+
+    private final List<Result> results = new ArrayList<>();
+    private final String only;
+    private final PrintStream out;
+
+    private Bench(String only, PrintStream out) {
+        this.only = only;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = { 1_000, 100_000 };
+        String only = "", outFile = null, baseline = null;
+        double threshold = 10;
+        for (int a = 0; a + 1 < args.length; a += 2) {
+            switch (args[a]) {
+                case "--sizes": sizes = Arrays.stream(args[a + 1].split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                case "--only": only = args[a + 1]; break;
+                case "--out": outFile = args[a + 1]; break;
+                case "--baseline": baseline = args[a + 1]; break;
+                case "--threshold": threshold = Double.parseDouble(args[a + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[a]);
+            }
+        }
+        Bench bench = new Bench(only, System.out);
+        bench.out.printf(Locale.ROOT, "%-28s %10s %14s %8s%n", "benchmark", "size", "ns/op", "spread%");
+        for (int size : sizes) bench.all(size);
+        if (outFile != null) bench.write(Paths.get(outFile));
+        if (baseline != null && bench.compare(Paths.get(baseline), threshold) > 0) System.exit(1);
+        System.exit(0);
+    }
+
+    private void all(int size) {
+        SplittableRandom random = new SplittableRandom(size);
+        // the sales cases make their own order lines, so a sales-only run at tens of millions of lines
+        // does not build as many products as well
+        SmartCartApp.Product[] products = only.startsWith("sales.") ? null : products(size, random);
+
+        if (wanted("inventory.")) {
+            SmartCartManager manager = new SmartCartManager();
+            manager.addProducts(Arrays.asList(products), Map.of());
+            measure("inventory.filter", size, i -> manager.getProducts(i % 2 == 0 ? "Electronics" : "Clothing",
+                    500 + i % 4000).size());
+            measure("inventory.search", size, i -> manager.search(i % 2 == 0 ? "phone" : "shirt blue", null,
+                    Double.MAX_VALUE, 50).size());
+            for (int i = 0; i < Math.min(size, 1_000); i++) manager.setStock(products[i].getId(), Integer.MAX_VALUE >> 2);
+            measure("inventory.cartAdd+remove", size, i -> {
+                SmartCartApp.Product p = products[i % Math.min(size, 1_000)];
+                manager.addToCart("bench", p);
+                manager.removeFromCart("bench", p.getId());
+                return 1;
+            });
+            try {
+                manager.close();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        if (wanted("stock.")) hotSku("stock.hotSku64", size, 64);
+
+        if (wanted("cart.")) {
+            SmartCartApp.Cart cart = new SmartCartApp.Cart();
+            int lines = Math.min(size, 1_000);
+            for (int i = 0; i < lines; i++) cart.add(products[i]);
+            SmartCartApp.Product extra = new SmartCartApp.Electronics("X0", "bench extra", 99);
+            measure("cart.add+remove", size, i -> {
+                cart.add(extra);
+                return cart.remove(extra.getId()).quantity;
+            });
+            measure("cart.total", size, i -> cart.totalFils());
+        }
+
+        if (wanted("login.")) {
+            UserStore users = new UserStore();
+            byte[] salt = new byte[16], hash = new byte[32];
+            for (int i = 0; i < size; i++) users.add(new UserStore.UserRecord("user" + i, salt, hash, 1));
+            // the PBKDF2 cost is deliberate, so only the lookup in front of it is measured
+            measure("login.lookup", size, i -> users.exists("user" + (i % (size * 2))) ? 1 : 0);
+        }
+
+        if (wanted("render.")) {
+            String[] rows = new String[Math.min(size, 10_000)];
+            for (int i = 0; i < rows.length; i++) {
+                SmartCartApp.Product p = products[i];
+                rows[i] = p.getName() + " — AED " + p.getPrice() + " | Reserved: 2026-10-01 | Planned: 2026-10-20 | Fee: AED "
+                        + SmartCartApp.Reservation.fee(p);
+            }
+            measure("render.rowText", size, i -> SmartCartApp.RowText.parse(rows[i % rows.length]).price.length());
+
+            SmartCartApp.ReservationTableModel model = new SmartCartApp.ReservationTableModel(new DecimalFormat("#0.00"));
+            List<SmartCartApp.Reservation> page = new ArrayList<>();
+            LocalDate today = LocalDate.of(2026, 10, 1);
+            for (int i = 0; i < 100; i++) {
+                SmartCartApp.Product p = products[i % products.length];
+                page.add(new SmartCartApp.Reservation(p, today, today.plusDays(i % 30), SmartCartApp.Reservation.fee(p)));
+            }
+            model.publish(page, size - page.size());
+            int columns = model.getColumnCount();
+            measure("render.reservationRow", size, i -> {
+                long n = 0;
+                for (int c = 0; c < columns; c++) n += model.getValueAt(i % page.size(), c).hashCode();
+                return n;
+            });
+        }
+
+        if (wanted("metrics.")) {
+            Metrics.Histogram h = Metrics.get().histogram("bench.histogram");
+            measure("metrics.histogram", size, i -> {
+                h.record(i % size);
+                return i;
+            });
+            // what an instrumented call pays for start()/stop(), sampled or not
+            Metrics.Histogram timer = Metrics.get().histogram("bench.timer");
+            measure("metrics.sampledTimer", size, i -> {
+                timer.stop(timer.start());
+                return i;
+            });
+        }
+
+        if (wanted("audit.")) {
+            // end to end through the ring and the writer into a real file; a full ring is waited out rather
+            // than dropped, so the score is the sustained rate the writer keeps up with
+            Path file = tempFile("bench-audit");
+            try (AuditLog audit = AuditLog.open(file, 1 << 16)) {
+                AuditLog.Type[] types = AuditLog.Type.values();
+                measure("audit.record", size, i -> {
+                    SmartCartApp.Product p = products[i % products.length];
+                    while (!audit.record(types[i % 8], "user" + (i & 1023), p.getId(), p.getPriceFils())) Thread.yield();
+                    return 1;
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                delete(file);
+            }
+        }
+
+        if (wanted("checkout.")) {
+            OrderService.CheckoutRequest[] requests = new OrderService.CheckoutRequest[Math.min(size, 10_000)];
+            for (int i = 0; i < requests.length; i++) {
+                OrderService.CheckoutRequest r = new OrderService.CheckoutRequest("user" + i, "k" + i, "Customer " + i,
+                        i + " Marina Walk, Dubai", "50" + (1_000_000 + i % 8_999_999), OrderService.PaymentMethod.CARD);
+                r.cardNumber = i % 10 == 0 ? "4111111111111112" : "4111111111111111";
+                r.cardExpiry = "12/" + (30 + i % 5);
+                r.cardCvv = "123";
+                requests[i] = r;
+            }
+            measure("checkout.validate", size, i -> Validators.checkout(requests[i % requests.length],
+                    java.time.YearMonth.of(2026, 10)).ordinal());
+        }
+
+        if (wanted("sales.")) {
+            // size order lines over two years, across up to 100k products and all payment methods
+            SalesAnalytics sales = new SalesAnalytics();
+            int productCount = Math.min(size, 100_000);
+            String[] ids = new String[productCount];
+            for (int p = 0; p < productCount; p++) ids[p] = (p % 2 == 0 ? "E" : "C") + p;
+            LocalDate from = LocalDate.of(2025, 1, 1), to = from.plusDays(729);
+            int firstDay = (int) from.toEpochDay();
+            for (int i = 0; i < size; i++) {
+                int p = random.nextInt(productCount);
+                sales.add(firstDay + random.nextInt(730), ids[p], p % 2 == 0 ? "Electronics" : "Clothing",
+                        1 + random.nextInt(3), 1_000 + random.nextInt(500_000), random.nextInt(3));
+            }
+            LocalDate quarter = from.plusDays(365);
+            measure("sales.totals", size, i -> sales.totals(SalesAnalytics.Dimension.CATEGORY).size());
+            measure("sales.daily", size, i -> sales.revenueByCategoryPerDay(from, to).size());
+            measure("sales.queryByCategory", size, i -> sales.query(SalesAnalytics.Dimension.CATEGORY, from, to, null,
+                    null).size());
+            measure("sales.queryByDayFiltered", size, i -> sales.query(SalesAnalytics.Dimension.DAY, quarter,
+                    quarter.plusDays(90), "Clothing", OrderService.PaymentMethod.CARD).size());
+        }
+    }
+
+    private static Path tempFile(String prefix) {
+        try {
+            return Files.createTempFile(prefix, ".tmp");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private boolean wanted(String group) {
+        return only.isEmpty() || group.startsWith(only) || only.startsWith(group);
+    }
+
+    // 64 threads race to hold units of one SKU stocked with 64 x size units, keeping every fourth hold and
+    // releasing the rest, until it sells out. Reports wall-clock ns per hold or release across all
+    // threads, and fails the run if the ledger ever ends with more units held than were on hand.
+    private void hotSku(String name, int size, int threads) {
+        if (!only.isEmpty() && !name.startsWith(only)) return;
+        int onHand = Math.multiplyExact(size, threads);
+        double[] scores = new double[MEASURED_BATCHES];
+        for (int round = -1; round < MEASURED_BATCHES; round++) {
+            StockLedger ledger = new StockLedger();
+            ledger.setOnHand("HOT", onHand);
+            LongAdder ops = new LongAdder(), kept = new LongAdder();
+            CountDownLatch go = new CountDownLatch(1);
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long holds = 0, releases = 0;
+                    while (ledger.hold("HOT", 1)) {
+                        if (++holds % 4 != 0) {
+                            ledger.release("HOT", 1);
+                            releases++;
+                        }
+                    }
+                    // the failed hold that found it sold out counts as well
+                    ops.add(holds + releases + 1);
+                    kept.add(holds - releases);
+                });
+                workers[t].start();
+            }
+            long t0 = System.nanoTime();
+            go.countDown();
+            for (Thread w : workers) {
+                try {
+                    w.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+            long elapsed = System.nanoTime() - t0;
+            if (kept.sum() != onHand || ledger.held("HOT") != onHand || ledger.available("HOT") != 0) {
+                throw new IllegalStateException(name + " oversold: " + kept.sum() + " kept, " + ledger.held("HOT")
+                        + " held, " + ledger.available("HOT") + " available of " + onHand);
+            }
+            if (round >= 0) scores[round] = elapsed / (double) ops.sum();
+        }
+        report(name, size, scores);
+    }
+
+    private void measure(String name, int size, Op op) {
+        if (!only.isEmpty() && !name.startsWith(only)) return;
+        long acc = 0;
+        int ops = 1;
+        long warmEnd = System.nanoTime() + WARMUP_NANOS;
+        // grow the batch until one takes about a tenth of the batch time, then keep warming at that size
+        while (System.nanoTime() < warmEnd) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < ops; i++) acc += op.run(i);
+            if (System.nanoTime() - t0 < BATCH_NANOS / 10 && ops < (1 << 30)) ops <<= 1;
+        }
+        double[] scores = new double[MEASURED_BATCHES];
+        for (int b = 0; b < MEASURED_BATCHES; b++) {
+            long t0 = System.nanoTime();
+            int done = 0;
+            while (System.nanoTime() - t0 < BATCH_NANOS) {
+                for (int i = 0; i < ops; i++) acc += op.run(done + i);
+                done += ops;
+            }
+            scores[b] = (System.nanoTime() - t0) / (double) done;
+        }
+        sink = acc;
+        report(name, size, scores);
+    }
+
+    private void report(String name, int size, double[] scores) {
+        Arrays.sort(scores);
+        double median = (scores[MEASURED_BATCHES / 2 - 1] + scores[MEASURED_BATCHES / 2]) / 2;
+        double spread = (scores[MEASURED_BATCHES - 2] - scores[1]) / 2 / median * 100;
+        Result r = new Result(name, size, median, spread);
+        results.add(r);
+        out.printf(Locale.ROOT, "%-28s %10d %14.1f %8.1f%n", name, size, median, spread);
+    }
+
+    private void write(Path file) throws IOException {
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write("# benchmark\tsize\tns/op\tspread%\t" + System.getProperty("java.version") + "\n");
+            for (Result r : results) {
+                w.write(String.format(Locale.ROOT, "%s\t%d\t%.3f\t%.1f%n", r.name, r.size, r.nsPerOp, r.spread));
+            }
+        }
+    }
+
+    // returns the number of regressions beyond the threshold; changes inside the measured spread are not flagged
+    private int compare(Path baseline, double thresholdPercent) throws IOException {
+        Map<String, Result> old = new HashMap<>();
+        for (String line : Files.readAllLines(baseline, StandardCharsets.UTF_8)) {
+            if (line.startsWith("#") || line.isBlank()) continue;
+            String[] f = line.split("\t");
+            Result r = new Result(f[0], Integer.parseInt(f[1]), Double.parseDouble(f[2]), Double.parseDouble(f[3]));
+            old.put(r.key(), r);
+        }
+        out.printf(Locale.ROOT, "%nagainst %s%n%-28s %10s %14s %14s %9s%n", baseline, "benchmark", "size",
+                "baseline", "now", "change");
+        int regressions = 0;
+        for (Result r : results) {
+            Result b = old.get(r.key());
+            if (b == null) continue;
+            double change = (r.nsPerOp - b.nsPerOp) / b.nsPerOp * 100;
+            boolean regression = change > Math.max(thresholdPercent, r.spread + b.spread);
+            if (regression) regressions++;
+            out.printf(Locale.ROOT, "%-28s %10d %14.1f %14.1f %+8.1f%%%s%n", r.name, r.size, b.nsPerOp, r.nsPerOp,
+                    change, regression ? "  REGRESSION" : "");
+        }
+        return regressions;
+    }
+
+    private static SmartCartApp.Product[] products(int n, SplittableRandom random) {
+        String[] gadgets = { "phone", "laptop", "headphones", "speaker", "tablet", "charger", "mouse", "monitor" };
+        String[] clothes = { "shirt", "jeans", "jacket", "dress", "sneakers", "hoodie", "scarf", "cap" };
+        String[] colours = { "black", "blue", "red", "white", "green", "grey" };
+        IntFunction<String> colour = i -> colours[random.nextInt(colours.length)];
+        SmartCartApp.Product[] products = new SmartCartApp.Product[n];
+        for (int i = 0; i < n; i++) {
+            double price = 10 + random.nextInt(500_000) / 100.0;
+            products[i] = i % 2 == 0
+                    ? new SmartCartApp.Electronics("E" + i, colour.apply(i) + " " + gadgets[random.nextInt(gadgets.length)] + " " + i, price)
+                    : new SmartCartApp.Clothing("C" + i, colour.apply(i) + " " + clothes[random.nextInt(clothes.length)] + " " + i, price);
+        }
+        return products;
+    }
+}
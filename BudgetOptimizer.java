@@ -0,0 +1,189 @@
+import java.util.*;
+import java.util.function.ToLongFunction;
+
+// Picks the best set of distinct products whose total price fits a budget (0/1 knapsack over fils).
+// Small problems are solved exactly by dynamic programming; large ones solve a core of items around
+// the greedy break point by branch and bound and fill the rest greedily.
+final class BudgetOptimizer {
+
+    private static final long DP_CELLS = 20_000_000L;
+    private static final int CORE = 64;
+    private static final long NODE_LIMIT = 2_000_000L;
+
+    static final class Plan {
+        final List<SmartCartApp.Product> items;
+        final long totalFils;
+        final long value;
+        final boolean optimal;
+
+        Plan(List<SmartCartApp.Product> items, long totalFils, long value, boolean optimal) {
+            this.items = items;
+            this.totalFils = totalFils;
+            this.value = value;
+            this.optimal = optimal;
+        }
+    }
+
+    private BudgetOptimizer() { }
+
+    // with no priorities the best plan spends as much of the budget as possible
+    static Plan fill(List<SmartCartApp.Product> candidates, long budgetFils) {
+        return optimize(candidates, SmartCartApp.Product::getPriceFils, budgetFils);
+    }
+
+    static Plan optimize(List<SmartCartApp.Product> candidates, ToLongFunction<SmartCartApp.Product> value,
+                         long budgetFils) {
+        List<SmartCartApp.Product> items = new ArrayList<>(candidates.size());
+        for (SmartCartApp.Product p : candidates) {
+            if (p.getPriceFils() > 0 && p.getPriceFils() <= budgetFils && value.applyAsLong(p) > 0) items.add(p);
+        }
+        int n = items.size();
+        long[] w = new long[n], v = new long[n];
+        long unit = 0;
+        for (int i = 0; i < n; i++) {
+            w[i] = items.get(i).getPriceFils();
+            v[i] = value.applyAsLong(items.get(i));
+            unit = gcd(unit, w[i]);
+        }
+        if (n == 0) return new Plan(List.of(), 0, 0, true);
+        // prices in whole dirhams shrink the table a hundredfold
+        long cap = budgetFils / unit;
+        boolean[] take = (cap + 1) * n <= DP_CELLS
+                ? dynamic(w, v, unit, (int) cap)
+                : branchAndBound(w, v, budgetFils);
+        List<SmartCartApp.Product> chosen = new ArrayList<>();
+        long total = 0, worth = 0;
+        for (int i = 0; i < n; i++) {
+            if (!take[i]) continue;
+            chosen.add(items.get(i));
+            total += w[i];
+            worth += v[i];
+        }
+        return new Plan(chosen, total, worth, (cap + 1) * n <= DP_CELLS);
+    }
+
+    // space-optimized table: one row of best values plus one bit per item and capacity to rebuild the choice
+    private static boolean[] dynamic(long[] w, long[] v, long unit, int cap) {
+        int n = w.length, width = cap + 1;
+        long[] best = new long[width];
+        long[] picked = new long[(int) (((long) n * width + 63) >>> 6)];
+        for (int i = 0; i < n; i++) {
+            int wi = (int) (w[i] / unit);
+            long base = (long) i * width;
+            for (int c = cap; c >= wi; c--) {
+                long with = best[c - wi] + v[i];
+                if (with > best[c]) {
+                    best[c] = with;
+                    long bit = base + c;
+                    picked[(int) (bit >>> 6)] |= 1L << bit;
+                }
+            }
+        }
+        boolean[] take = new boolean[n];
+        int c = cap;
+        for (int i = n - 1; i >= 0; i--) {
+            long bit = (long) i * width + c;
+            if ((picked[(int) (bit >>> 6)] & (1L << bit)) != 0) {
+                take[i] = true;
+                c -= (int) (w[i] / unit);
+            }
+        }
+        return take;
+    }
+
+    private static boolean[] branchAndBound(long[] w, long[] v, long budget) {
+        int n = w.length;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        // best value per fil first; ties favour the pricier item so the budget is used up faster
+        Arrays.sort(order, (a, b) -> {
+            int byDensity = Long.compare(v[b] * w[a], v[a] * w[b]);
+            return byDensity != 0 ? byDensity : Long.compare(w[b], w[a]);
+        });
+        int breakItem = 0;
+        long used = 0;
+        while (breakItem < n && used + w[order[breakItem]] <= budget) used += w[order[breakItem++]];
+
+        // items well before the break point are almost surely in an optimal plan and items well after
+        // it almost surely out; only the core between them is searched
+        int from = Math.max(0, breakItem - CORE), to = Math.min(n, breakItem + CORE);
+        boolean[] take = new boolean[n];
+        long fixed = 0;
+        for (int k = 0; k < from; k++) {
+            take[order[k]] = true;
+            fixed += w[order[k]];
+        }
+        Core core = new Core(w, v, order, from, to);
+        core.search(0, budget - fixed, 0);
+        long left = budget - fixed;
+        for (int k = from; k < to; k++) {
+            if (core.best[k - from]) {
+                take[order[k]] = true;
+                left -= w[order[k]];
+            }
+        }
+        for (int k = to; k < n; k++) {
+            if (w[order[k]] <= left) {
+                take[order[k]] = true;
+                left -= w[order[k]];
+            }
+        }
+        return take;
+    }
+
+    private static final class Core {
+        final long[] w, v;
+        final boolean[] current, best;
+        long bestValue = -1;
+        long nodes;
+
+        Core(long[] weights, long[] values, Integer[] order, int from, int to) {
+            int m = to - from;
+            w = new long[m];
+            v = new long[m];
+            for (int k = 0; k < m; k++) {
+                w[k] = weights[order[from + k]];
+                v[k] = values[order[from + k]];
+            }
+            current = new boolean[m];
+            best = new boolean[m];
+        }
+
+        void search(int i, long room, long value) {
+            if (value > bestValue) {
+                bestValue = value;
+                System.arraycopy(current, 0, best, 0, current.length);
+            }
+            if (i == w.length || ++nodes > NODE_LIMIT || value + bound(i, room) <= bestValue) return;
+            if (w[i] <= room) {
+                current[i] = true;
+                search(i + 1, room - w[i], value + v[i]);
+                current[i] = false;
+            }
+            search(i + 1, room, value);
+        }
+
+        // fractional relaxation: items in density order, the first that does not fit taken in part
+        private long bound(int i, long room) {
+            long extra = 0;
+            for (; i < w.length; i++) {
+                if (w[i] <= room) {
+                    room -= w[i];
+                    extra += v[i];
+                } else {
+                    return extra + (long) Math.ceil((double) v[i] * room / w[i]);
+                }
+            }
+            return extra;
+        }
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
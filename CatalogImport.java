@@ -0,0 +1,333 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+// Streaming product import. A reader thread cuts the file into line-aligned chunks with FileChannel
+// reads, a worker per core parses and validates chunks in parallel, and the calling thread applies the
+// rows in file order, in batches that each reach readers through one catalog swap. Only a few chunks
+// and one batch are held at a time, so memory stays flat however large the feed is.
+//   id,category,name,price[,stock]   adds or replaces a product
+//   id,price[,stock]                 changes the price of an existing product
+final class CatalogImport {
+
+    private static final int CHUNK = 1 << 20;
+    private static final int BATCH = 65_536;
+    private static final long MAX_UNITS = 10_000_000_000L;
+
+    static final class Result {
+        long rows, changed, unchanged, rejected, nanos;
+
+        double rowsPerSecond() { return nanos == 0 ? 0 : rows * 1e9 / nanos; }
+    }
+
+    // one line of input; line counts from the start of its chunk
+    private static final class Row {
+        final int line;
+        final String id, category, name, error;
+        final long fils;
+        final int stock;
+
+        Row(int line, String id, String category, String name, long fils, int stock, String error) {
+            this.line = line; this.id = id; this.category = category; this.name = name;
+            this.fils = fils; this.stock = stock; this.error = error;
+        }
+    }
+
+    private static final class Chunk {
+        final byte[] bytes;
+        final int length;
+        final boolean first;
+
+        Chunk(byte[] bytes, int length, boolean first) { this.bytes = bytes; this.length = length; this.first = first; }
+    }
+
+    private static final class Parsed {
+        final List<Row> rows = new ArrayList<>();
+        int lines;
+    }
+
+    private static final Parsed END = new Parsed();
+
+    private final SmartCartManager manager;
+    private final String source;
+    private final Consumer<String> rejected;
+    private final Result result = new Result();
+    private final Map<String, SmartCartApp.Product> batch = new LinkedHashMap<>();
+    private final Map<String, Integer> onHand = new HashMap<>();
+    // the last line that changed each id in the pending batch, for reporting refused stock counts
+    private final Map<String, Integer> lineOf = new HashMap<>();
+    private final Metrics.Histogram batchTime = Metrics.get().histogram("import.batch");
+    private final Metrics.Counter rowCount = Metrics.get().counter("import.rows");
+
+    private CatalogImport(SmartCartManager manager, String source, Consumer<String> rejected) {
+        this.manager = manager;
+        this.source = source;
+        this.rejected = rejected;
+    }
+
+    // rejected lines go to the consumer as file:line: reason, in file order, except that a stock count
+    // below the units on hold is only found, and reported, when its batch is applied
+    static Result run(SmartCartManager manager, Path csv, Consumer<String> rejected) throws IOException {
+        int workers = Runtime.getRuntime().availableProcessors();
+        ExecutorService parsers = Executors.newFixedThreadPool(workers, Threads.daemon("smartcart-import"));
+        // the reader waits once this many chunks are read but not yet applied
+        BlockingQueue<Future<Parsed>> inFlight = new ArrayBlockingQueue<>(2 * workers);
+        Thread reader = new Thread(() -> read(csv, inFlight, parsers), "smartcart-import-reader");
+        reader.setDaemon(true);
+        CatalogImport importer = new CatalogImport(manager, csv.toString(), rejected);
+        long start = System.nanoTime();
+        reader.start();
+        try {
+            int line = 1;
+            for (Parsed chunk = next(inFlight); chunk != END; chunk = next(inFlight)) {
+                for (Row row : chunk.rows) importer.apply(row, line + row.line);
+                line += chunk.lines;
+            }
+            importer.flush();
+        } finally {
+            reader.interrupt();
+            parsers.shutdownNow();
+        }
+        importer.result.nanos = System.nanoTime() - start;
+        return importer.result;
+    }
+
+    private static Parsed next(BlockingQueue<Future<Parsed>> inFlight) throws IOException {
+        try {
+            return inFlight.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during import");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void read(Path csv, BlockingQueue<Future<Parsed>> inFlight, ExecutorService parsers) {
+        try {
+            try (FileChannel ch = FileChannel.open(csv, READ)) {
+                byte[] carry = new byte[0];
+                boolean first = true, eof = false;
+                while (!eof) {
+                    byte[] bytes = Arrays.copyOf(carry, CHUNK);
+                    ByteBuffer buf = ByteBuffer.wrap(bytes, carry.length, CHUNK - carry.length);
+                    while (buf.hasRemaining() && !eof) eof = ch.read(buf) < 0;
+                    int length = buf.position(), cut = length;
+                    // a partial last line moves to the next chunk so no worker sees half a row
+                    if (!eof) {
+                        while (cut > 0 && bytes[cut - 1] != '\n') cut--;
+                        if (cut == 0) throw new IOException(csv + ": line longer than " + CHUNK + " bytes");
+                    }
+                    carry = Arrays.copyOfRange(bytes, cut, length);
+                    Chunk chunk = new Chunk(bytes, cut, first);
+                    first = false;
+                    inFlight.put(CompletableFuture.supplyAsync(() -> parse(chunk), parsers));
+                }
+            }
+            inFlight.put(CompletableFuture.completedFuture(END));
+        } catch (IOException e) {
+            try {
+                inFlight.put(CompletableFuture.failedFuture(e));
+            } catch (InterruptedException ignored) {
+            }
+        } catch (InterruptedException | RejectedExecutionException stopped) {
+            // the import failed while applying and no longer reads
+        }
+    }
+
+    private static Parsed parse(Chunk chunk) {
+        Parsed out = new Parsed();
+        byte[] b = chunk.bytes;
+        int from = 0;
+        if (chunk.first && chunk.length >= 3 && b[0] == (byte) 0xEF && b[1] == (byte) 0xBB && b[2] == (byte) 0xBF) from = 3;
+        int[] starts = new int[5], ends = new int[5];
+        for (int line = 0; from < chunk.length; line++) {
+            int end = from;
+            while (end < chunk.length && b[end] != '\n') end++;
+            Row row = parseLine(b, from, end, line, chunk.first && line == 0, starts, ends);
+            if (row != null) out.rows.add(row);
+            out.lines = line + 1;
+            from = end + 1;
+        }
+        return out;
+    }
+
+    private static Row parseLine(byte[] b, int from, int to, int line, boolean header, int[] starts, int[] ends) {
+        while (from < to && isSpace(b[from])) from++;
+        while (to > from && isSpace(b[to - 1])) to--;
+        if (from == to || b[from] == '#') return null;
+        if (header && to - from > 3 && b[from] == 'i' && b[from + 1] == 'd' && b[from + 2] == ',') return null;
+        // fields may be quoted, with "" for a quote inside, so names can hold commas
+        int fields = 0;
+        boolean quoted = false;
+        for (int i = from, start = from; i <= to; i++) {
+            if (i < to) {
+                if (b[i] == '"') quoted = !quoted;
+                if (quoted || b[i] != ',') continue;
+            }
+            if (fields == starts.length) return error(line, "expected at most 5 fields");
+            starts[fields] = start;
+            ends[fields++] = i;
+            start = i + 1;
+        }
+        if (quoted) return error(line, "unclosed quote");
+        if (fields == 1) return error(line, "expected id,price or id,category,name,price");
+        String id = text(b, starts[0], ends[0]);
+        if (id.isEmpty()) return error(line, "missing id");
+        boolean update = fields <= 3;
+        int price = update ? 1 : 3, stockField = price + 1;
+        long fils = fils(b, starts[price], ends[price]);
+        if (fils < 0) return error(line, "bad price '" + text(b, starts[price], ends[price]) + "'");
+        int stock = -1;
+        if (fields > stockField) {
+            String s = text(b, starts[stockField], ends[stockField]);
+            // an empty field leaves the stock as it is; anything else must be a count of zero or more
+            if (!s.isEmpty()) {
+                try {
+                    stock = Integer.parseInt(s);
+                } catch (NumberFormatException e) {
+                    stock = -1;
+                }
+                if (stock < 0) return error(line, "bad stock '" + s + "'");
+            }
+        }
+        if (update) return new Row(line, id, null, null, fils, stock, null);
+        String category = category(b, starts[1], ends[1]);
+        if (category == null) return error(line, "unknown category " + text(b, starts[1], ends[1]));
+        String name = text(b, starts[2], ends[2]);
+        if (name.isEmpty()) return error(line, "missing name");
+        return new Row(line, id, category, name, fils, stock, null);
+    }
+
+    private static Row error(int line, String message) { return new Row(line, null, null, null, 0, -1, message); }
+
+    // exact fils from a plain decimal such as 1299 or 1299.5, or -1; no exponents or signs
+    private static long fils(byte[] b, int from, int to) {
+        while (from < to && isSpace(b[from])) from++;
+        while (to > from && isSpace(b[to - 1])) to--;
+        if (isQuoted(b, from, to)) {
+            from++;
+            to--;
+        }
+        long units = 0;
+        int i = from;
+        for (; i < to && b[i] != '.'; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9 || units >= MAX_UNITS) return -1;
+            units = units * 10 + d;
+        }
+        if (i == from) return -1;
+        int decimals = to - i - 1;
+        if (i == to) return units * 100;
+        if (decimals < 1 || decimals > 2) return -1;
+        long fraction = 0;
+        for (int k = i + 1; k < to; k++) {
+            int d = b[k] - '0';
+            if (d < 0 || d > 9) return -1;
+            fraction = fraction * 10 + d;
+        }
+        return units * 100 + (decimals == 1 ? fraction * 10 : fraction);
+    }
+
+    private static String category(byte[] b, int from, int to) {
+        String name = text(b, from, to);
+        for (String c : ColumnarCatalog.CATEGORIES) if (c.equals(name)) return c;
+        return null;
+    }
+
+    private static String text(byte[] b, int from, int to) {
+        while (from < to && isSpace(b[from])) from++;
+        while (to > from && isSpace(b[to - 1])) to--;
+        if (isQuoted(b, from, to)) return new String(b, from + 1, to - from - 2, StandardCharsets.UTF_8).replace("\"\"", "\"");
+        return new String(b, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isQuoted(byte[] b, int from, int to) {
+        return to - from >= 2 && b[from] == '"' && b[to - 1] == '"';
+    }
+
+    private static boolean isSpace(byte c) { return c == ' ' || c == '\t' || c == '\r'; }
+
+    private void apply(Row row, int line) throws IOException {
+        result.rows++;
+        rowCount.increment();
+        if (row.error != null) {
+            reject(line, row.error);
+            return;
+        }
+        // a refused stock count drops every pending change to its id, so a stock row never shares a
+        // batch with another row for the same id
+        if ((row.stock >= 0 || onHand.containsKey(row.id)) && lineOf.containsKey(row.id)) flush();
+        // rows earlier in the batch are not in the catalog yet
+        SmartCartApp.Product old = batch.get(row.id);
+        if (old == null) old = manager.findProduct(row.id);
+        SmartCartApp.Product p;
+        if (row.name != null) {
+            boolean same = old != null && old.getPriceFils() == row.fils && old.getName().equals(row.name)
+                    && old.getCategory().equals(row.category);
+            p = same ? old : SmartCartManager.newProduct(row.id, row.category, row.name, row.fils / 100.0);
+        } else if (old == null) {
+            reject(line, "unknown product " + row.id);
+            return;
+        } else {
+            p = old.getPriceFils() == row.fils ? old
+                    : SmartCartManager.newProduct(row.id, old.getCategory(), old.getName(), row.fils / 100.0);
+        }
+        boolean changed = p != old;
+        if (changed) batch.put(row.id, p);
+        if (row.stock >= 0) {
+            onHand.put(row.id, row.stock);
+            changed = true;
+        }
+        if (changed) {
+            result.changed++;
+            lineOf.put(row.id, line);
+        } else {
+            result.unchanged++;
+        }
+        if (batch.size() + onHand.size() >= BATCH) flush();
+    }
+
+    private void reject(int line, String message) {
+        result.rejected++;
+        rejected.accept(source + ":" + line + ": " + message);
+    }
+
+    // waiting for the log between batches keeps the writer's queue to one batch
+    private void flush() throws IOException {
+        if (batch.isEmpty() && onHand.isEmpty()) return;
+        long start = System.nanoTime();
+        Map<String, String> refused = manager.addProducts(batch.values(), onHand);
+        manager.flushLog();
+        for (Map.Entry<String, String> e : refused.entrySet()) {
+            result.changed--;
+            reject(lineOf.get(e.getKey()), e.getValue());
+        }
+        batch.clear();
+        onHand.clear();
+        lineOf.clear();
+        batchTime.since(start);
+    }
+}
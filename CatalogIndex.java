@@ -0,0 +1,153 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Products live in immutable segments picked by id hash. Readers work from whichever segment array is
+// current and never lock; writers copy only the segments a batch touches and publish them with one
+// volatile write, so a whole batch becomes visible at once and an import never blocks browsing.
+class CatalogIndex {
+
+    private static final int SEGMENTS = 64;
+    private static final Comparator<SmartCartApp.Product> BY_PRICE =
+            Comparator.comparingDouble(SmartCartApp.Product::getPrice);
+    private static final SmartCartApp.Product[] NONE = new SmartCartApp.Product[0];
+
+    private static final class Segment {
+        static final Segment EMPTY = new Segment(new HashMap<>(), new HashMap<>());
+
+        final HashMap<String, SmartCartApp.Product> byId;
+        // each category in price order
+        final Map<String, SmartCartApp.Product[]> byCategory;
+
+        Segment(HashMap<String, SmartCartApp.Product> byId, Map<String, SmartCartApp.Product[]> byCategory) {
+            this.byId = byId;
+            this.byCategory = byCategory;
+        }
+
+        Segment with(Map<String, SmartCartApp.Product> changes) {
+            HashMap<String, SmartCartApp.Product> ids = new HashMap<>(byId);
+            Map<String, List<SmartCartApp.Product>> added = new HashMap<>();
+            Set<String> touched = new HashSet<>();
+            for (SmartCartApp.Product p : changes.values()) {
+                SmartCartApp.Product old = ids.put(p.getId(), p);
+                if (old != null) touched.add(old.getCategory());
+                touched.add(p.getCategory());
+                added.computeIfAbsent(p.getCategory(), c -> new ArrayList<>()).add(p);
+            }
+            Map<String, SmartCartApp.Product[]> categories = new HashMap<>(byCategory);
+            for (String category : touched) {
+                SmartCartApp.Product[] kept = byCategory.getOrDefault(category, NONE);
+                List<SmartCartApp.Product> fresh = added.getOrDefault(category, new ArrayList<>());
+                fresh.sort(BY_PRICE);
+                // one merge pass: replaced products drop out, changed ones slot in at their new price
+                SmartCartApp.Product[] merged = new SmartCartApp.Product[kept.length + fresh.size()];
+                int n = 0, j = 0;
+                for (SmartCartApp.Product p : kept) {
+                    if (changes.containsKey(p.getId())) continue;
+                    while (j < fresh.size() && BY_PRICE.compare(fresh.get(j), p) < 0) merged[n++] = fresh.get(j++);
+                    merged[n++] = p;
+                }
+                while (j < fresh.size()) merged[n++] = fresh.get(j++);
+                if (n == 0) categories.remove(category);
+                else categories.put(category, n == merged.length ? merged : Arrays.copyOf(merged, n));
+            }
+            return new Segment(ids, categories);
+        }
+    }
+
+    // price order across all segments, merged on first use for one published segment array
+    private static final class Views {
+        final Segment[] source;
+        final Map<String, SmartCartApp.Product[]> byCategory = new ConcurrentHashMap<>();
+
+        Views(Segment[] source) { this.source = source; }
+    }
+
+    private volatile Segment[] segments;
+    private volatile Views views;
+
+    CatalogIndex() {
+        Segment[] empty = new Segment[SEGMENTS];
+        Arrays.fill(empty, Segment.EMPTY);
+        segments = empty;
+    }
+
+    void add(SmartCartApp.Product p) { addAll(List.of(p)); }
+
+    // writers serialize among themselves only; a later product with the same id wins
+    synchronized void addAll(Collection<SmartCartApp.Product> products) {
+        if (products.isEmpty()) return;
+        List<Map<String, SmartCartApp.Product>> changes = new ArrayList<>(Collections.nCopies(SEGMENTS, null));
+        for (SmartCartApp.Product p : products) {
+            int s = segment(p.getId());
+            if (changes.get(s) == null) changes.set(s, new HashMap<>());
+            changes.get(s).put(p.getId(), p);
+        }
+        Segment[] next = segments.clone();
+        for (int s = 0; s < SEGMENTS; s++) {
+            if (changes.get(s) != null) next[s] = next[s].with(changes.get(s));
+        }
+        segments = next;
+    }
+
+    SmartCartApp.Product get(String id) { return segments[segment(id)].byId.get(id); }
+
+    List<SmartCartApp.Product> all() {
+        Segment[] current = segments;
+        List<SmartCartApp.Product> all = new ArrayList<>(size(current));
+        for (Segment s : current) all.addAll(s.byId.values());
+        return Collections.unmodifiableList(all);
+    }
+
+    int size() { return size(segments); }
+
+    // published arrays are never written again, so a view over one is as safe as a copy
+    List<SmartCartApp.Product> inCategory(String category, double maxPrice) {
+        SmartCartApp.Product[] sorted = sorted(category);
+        return Collections.unmodifiableList(Arrays.asList(sorted).subList(0, upperBound(sorted, maxPrice)));
+    }
+
+    private SmartCartApp.Product[] sorted(String category) {
+        Segment[] current = segments;
+        Views v = views;
+        if (v == null || v.source != current) views = v = new Views(current);
+        return v.byCategory.computeIfAbsent(category, c -> {
+            List<SmartCartApp.Product[]> runs = new ArrayList<>();
+            int n = 0;
+            for (Segment s : current) {
+                SmartCartApp.Product[] run = s.byCategory.get(c);
+                if (run != null) { runs.add(run); n += run.length; }
+            }
+            if (runs.size() == 1) return runs.get(0);
+            SmartCartApp.Product[] all = new SmartCartApp.Product[n];
+            int at = 0;
+            for (SmartCartApp.Product[] run : runs) {
+                System.arraycopy(run, 0, all, at, run.length);
+                at += run.length;
+            }
+            // TimSort picks up the already sorted runs, so this costs a merge rather than a full sort
+            Arrays.sort(all, BY_PRICE);
+            return all;
+        });
+    }
+
+    private static int size(Segment[] segments) {
+        int n = 0;
+        for (Segment s : segments) n += s.byId.size();
+        return n;
+    }
+
+    // top bits of a multiplicative hash: HashMap buckets use the low bits, and a segment whose keys all
+    // shared those would pile them into a sliver of its table
+    private static int segment(String id) {
+        return (id.hashCode() * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(SEGMENTS));
+    }
+
+    private static int upperBound(SmartCartApp.Product[] sorted, double maxPrice) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid].getPrice() <= maxPrice) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+}
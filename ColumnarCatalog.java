@@ -0,0 +1,229 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+final class ColumnarCatalog {
+
+    private static final int MAGIC = 0x53434331; // "SCC1"
+    static final String[] CATEGORIES = { "Electronics", "Clothing" };
+
+    private final int rows;
+    private final int[] categoryStart;
+    private final LongBuffer prices;
+    private final IntBuffer idOffsets;
+    private final IntBuffer nameOffsets;
+    private final IntBuffer priceOrder;
+    private final ByteBuffer categories;
+    private final ByteBuffer idBlob;
+    private final ByteBuffer nameBlob;
+
+    private ColumnarCatalog(MappedByteBuffer buf) throws IOException {
+        if (buf.getInt(0) != MAGIC) throw new IOException("Not a SmartCart catalog file");
+        rows = buf.getInt(4);
+        int idBlobLen = buf.getInt(8);
+        int nameBlobLen = buf.getInt(12);
+        if (buf.getInt(16) != CATEGORIES.length) throw new IOException("Unsupported category table");
+        categoryStart = new int[CATEGORIES.length + 1];
+        int pos = 20;
+        for (int i = 0; i < categoryStart.length; i++, pos += 4) categoryStart[i] = buf.getInt(pos);
+        prices = slice(buf, pos, rows * 8).asLongBuffer(); pos += rows * 8;
+        idOffsets = slice(buf, pos, (rows + 1) * 4).asIntBuffer(); pos += (rows + 1) * 4;
+        nameOffsets = slice(buf, pos, (rows + 1) * 4).asIntBuffer(); pos += (rows + 1) * 4;
+        priceOrder = slice(buf, pos, rows * 4).asIntBuffer(); pos += rows * 4;
+        categories = slice(buf, pos, rows); pos += rows;
+        idBlob = slice(buf, pos, idBlobLen); pos += idBlobLen;
+        nameBlob = slice(buf, pos, nameBlobLen);
+    }
+
+    static ColumnarCatalog open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, READ)) {
+            if (ch.size() > Integer.MAX_VALUE) throw new IOException("Catalog file larger than 2 GB: " + file);
+            return new ColumnarCatalog(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    int size() { return rows; }
+
+    SmartCartApp.Product product(int row) { return new View(this, row); }
+
+    String id(int row) { return utf8(idBlob, idOffsets.get(row), idOffsets.get(row + 1)); }
+
+    String name(int row) { return utf8(nameBlob, nameOffsets.get(row), nameOffsets.get(row + 1)); }
+
+    double price(int row) { return prices.get(row) / 100.0; }
+
+    String category(int row) { return CATEGORIES[categories.get(row)]; }
+
+    int find(String id) {
+        int lo = 0, hi = rows - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = id(mid).compareTo(id);
+            if (cmp < 0) lo = mid + 1; else if (cmp > 0) hi = mid - 1; else return mid;
+        }
+        return -1;
+    }
+
+    List<SmartCartApp.Product> all() {
+        return new AbstractList<SmartCartApp.Product>() {
+            @Override public SmartCartApp.Product get(int i) { return product(Objects.checkIndex(i, rows)); }
+            @Override public int size() { return rows; }
+        };
+    }
+
+    // price-ordered rows of one category, created on access so nothing is materialized up front
+    List<SmartCartApp.Product> inCategory(String category, double maxPrice) {
+        int c = Arrays.asList(CATEGORIES).indexOf(category);
+        if (c < 0) return List.of();
+        int from = categoryStart[c];
+        long maxFils = maxPrice >= Long.MAX_VALUE / 100.0 ? Long.MAX_VALUE : (long) Math.floor(maxPrice * 100.0);
+        int lo = from, hi = categoryStart[c + 1];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (prices.get(priceOrder.get(mid)) <= maxFils) lo = mid + 1; else hi = mid;
+        }
+        int to = lo;
+        return new AbstractList<SmartCartApp.Product>() {
+            @Override public SmartCartApp.Product get(int i) {
+                return product(priceOrder.get(from + Objects.checkIndex(i, to - from)));
+            }
+            @Override public int size() { return to - from; }
+        };
+    }
+
+    // CSV rows are id,category,name,price; the name may itself contain commas
+    static int convertCsv(Path csv, Path out) throws IOException {
+        List<String> idList = new ArrayList<>();
+        List<byte[]> nameList = new ArrayList<>();
+        long[] filsIn = new long[1024];
+        byte[] catIn = new byte[1024];
+        try (BufferedReader in = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank() || (lineNo == 1 && line.startsWith("id,"))) continue;
+                int a = line.indexOf(','), b = line.indexOf(',', a + 1), z = line.lastIndexOf(',');
+                if (a < 0 || b < 0 || z <= b) throw new IOException("Bad catalog row " + lineNo + ": " + line);
+                String category = unquote(line.substring(a + 1, b));
+                int c = Arrays.asList(CATEGORIES).indexOf(category);
+                if (c < 0) throw new IOException("Unknown category on row " + lineNo + ": " + category);
+                int row = idList.size();
+                if (row == filsIn.length) {
+                    filsIn = Arrays.copyOf(filsIn, row * 2);
+                    catIn = Arrays.copyOf(catIn, row * 2);
+                }
+                try {
+                    filsIn[row] = Math.round(Double.parseDouble(unquote(line.substring(z + 1))) * 100.0);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad price on row " + lineNo + ": " + line, e);
+                }
+                catIn[row] = (byte) c;
+                idList.add(unquote(line.substring(0, a)));
+                nameList.add(unquote(line.substring(b + 1, z)).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        int n = idList.size();
+        Integer[] byId = new Integer[n];
+        for (int i = 0; i < n; i++) byId[i] = i;
+        Arrays.sort(byId, Comparator.comparing(idList::get));
+
+        long[] fils = new long[n];
+        byte[] cat = new byte[n];
+        byte[][] ids = new byte[n][];
+        byte[][] names = new byte[n][];
+        int idLen = 0, nameLen = 0;
+        for (int i = 0; i < n; i++) {
+            int src = byId[i];
+            if (i > 0 && idList.get(src).equals(idList.get(byId[i - 1]))) {
+                throw new IOException("Duplicate product id " + idList.get(src));
+            }
+            fils[i] = filsIn[src];
+            cat[i] = catIn[src];
+            ids[i] = idList.get(src).getBytes(StandardCharsets.UTF_8);
+            names[i] = nameList.get(src);
+            idLen += ids[i].length;
+            nameLen += names[i].length;
+        }
+        idList = null; nameList = null; filsIn = null; catIn = null;
+
+        Integer[] order = byId;
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, Comparator.<Integer>comparingInt(i -> cat[i]).thenComparingLong(i -> fils[i]));
+        int[] categoryStart = new int[CATEGORIES.length + 1];
+        for (byte c : cat) categoryStart[c + 1]++;
+        for (int c = 0; c < CATEGORIES.length; c++) categoryStart[c + 1] += categoryStart[c];
+
+        try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(out), 1 << 16))) {
+            data.writeInt(MAGIC);
+            data.writeInt(n);
+            data.writeInt(idLen);
+            data.writeInt(nameLen);
+            data.writeInt(CATEGORIES.length);
+            for (int s : categoryStart) data.writeInt(s);
+            for (long f : fils) data.writeLong(f);
+            writeOffsets(data, ids);
+            writeOffsets(data, names);
+            for (Integer row : order) data.writeInt(row);
+            data.write(cat);
+            for (byte[] id : ids) data.write(id);
+            for (byte[] name : names) data.write(name);
+        }
+        return n;
+    }
+
+    private static void writeOffsets(DataOutputStream data, byte[][] values) throws IOException {
+        int offset = 0;
+        data.writeInt(0);
+        for (byte[] v : values) data.writeInt(offset += v.length);
+    }
+
+    private static String unquote(String field) {
+        String f = field.trim();
+        if (f.length() >= 2 && f.charAt(0) == '"' && f.charAt(f.length() - 1) == '"') {
+            f = f.substring(1, f.length() - 1).replace("\"\"", "\"");
+        }
+        return f;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int pos, int len) {
+        return buf.duplicate().position(pos).limit(pos + len).slice();
+    }
+
+    private static String utf8(ByteBuffer blob, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        blob.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class View extends SmartCartApp.Product {
+        private final ColumnarCatalog catalog;
+        private final int row;
+
+        View(ColumnarCatalog catalog, int row) {
+            this.catalog = catalog;
+            this.row = row;
+        }
+
+        @Override public String getId() { return catalog.id(row); }
+        @Override public String getName() { return catalog.name(row); }
+        @Override public double getPrice() { return catalog.price(row); }
+        @Override public long getPriceFils() { return catalog.prices.get(row); }
+        @Override public String getCategory() { return catalog.category(row); }
+
+        @Override public boolean equals(Object o) {
+            return o instanceof View && ((View) o).catalog == catalog && ((View) o).row == row;
+        }
+        @Override public int hashCode() { return row; }
+    }
+}
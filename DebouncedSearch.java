@@ -0,0 +1,62 @@
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+// Search-as-you-type plumbing. Keystrokes restart a timer on the EDT; when typing pauses the query
+// runs on a background executor, any query still running is cancelled, and only the newest result
+// is published back on the EDT. The query function runs on the EDT and returns the work to do in
+// the background, so it can read UI state safely. The histogram times each published query from
+// the moment it was started to the moment its result reached the EDT.
+final class DebouncedSearch<T> {
+
+    private final Timer timer;
+    private final ExecutorService executor;
+    private final Metrics.Histogram time;
+    private final Function<String, Callable<List<T>>> query;
+    private final Consumer<List<T>> publish;
+    private String text = "";
+    private int generation;
+    private Future<?> inFlight;
+
+    DebouncedSearch(int delayMillis, ExecutorService executor, Metrics.Histogram time,
+                    Function<String, Callable<List<T>>> query, Consumer<List<T>> publish) {
+        this.executor = executor;
+        this.time = time;
+        this.query = query;
+        this.publish = publish;
+        this.timer = new Timer(delayMillis, e -> runNow());
+        timer.setRepeats(false);
+    }
+
+    // EDT only
+    void textChanged(String newText) {
+        text = newText.trim();
+        timer.restart();
+    }
+
+    // EDT only; runs the current text immediately, e.g. when the panel is shown or the budget changes
+    void runNow() {
+        timer.stop();
+        long start = System.nanoTime();
+        if (inFlight != null) inFlight.cancel(true);
+        int gen = ++generation;
+        Callable<List<T>> work = query.apply(text);
+        inFlight = executor.submit(() -> {
+            List<T> result = work.call();
+            if (Thread.currentThread().isInterrupted()) return null;
+            SwingUtilities.invokeLater(() -> {
+                if (gen != generation) return;
+                publish.accept(result);
+                time.since(start);
+            });
+            return null;
+        });
+    }
+
+    String text() { return text; }
+}
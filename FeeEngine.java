@@ -0,0 +1,136 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// Reservation fee and refund rules, plus a batch engine that totals recorded fees and refunds over
+// columnar history.
+final class FeeEngine {
+
+    static final long MIN_FEE_FILS = 500;
+    private static final int CHUNK = 1 << 16;
+    static final int NO_DAY = Integer.MIN_VALUE;
+
+    private FeeEngine() { }
+
+    // 10% of the price, rounded to the nearest fil, never below AED 5
+    static long feeFils(long priceFils) { return Math.max(MIN_FEE_FILS, (priceFils + 5) / 10); }
+
+    // full refund more than a week ahead, half within the last week, nothing once the date has passed
+    static long refundFils(long feeFils, long daysBeforePlanned) {
+        if (daysBeforePlanned > 7) return feeFils;
+        if (daysBeforePlanned >= 0) return (feeFils + 1) / 2;
+        return 0;
+    }
+
+    // one row per reservation with the fee it was charged and the refund it was granted, which stay as
+    // recorded when prices or rules change later; refundDay is NO_DAY for reservations that were never
+    // cancelled or expired, or whose refund was recorded without a date
+    static final class Batch {
+        private long[] feeFils = new long[1024];
+        private long[] refundFils = new long[1024];
+        private byte[] category = new byte[1024];
+        private int[] reservedDay = new int[1024];
+        private int[] refundDay = new int[1024];
+        private int size;
+        private int minDay = Integer.MAX_VALUE;
+        private int maxDay = Integer.MIN_VALUE;
+
+        void add(long fee, long refund, String categoryName, LocalDate reserved, LocalDate refunded) {
+            add(fee, refund, categoryIndex(categoryName), (int) reserved.toEpochDay(),
+                    refunded == null ? NO_DAY : (int) refunded.toEpochDay());
+        }
+
+        void add(long fee, long refund, int cat, int reserved, int refunded) {
+            if (size == feeFils.length) {
+                int n = size * 2;
+                feeFils = Arrays.copyOf(feeFils, n);
+                refundFils = Arrays.copyOf(refundFils, n);
+                category = Arrays.copyOf(category, n);
+                reservedDay = Arrays.copyOf(reservedDay, n);
+                refundDay = Arrays.copyOf(refundDay, n);
+            }
+            feeFils[size] = fee;
+            refundFils[size] = refund;
+            category[size] = (byte) cat;
+            reservedDay[size] = reserved;
+            refundDay[size] = refunded;
+            size++;
+            minDay = Math.min(minDay, reserved);
+            maxDay = Math.max(maxDay, reserved);
+            if (refunded != NO_DAY) {
+                minDay = Math.min(minDay, refunded);
+                maxDay = Math.max(maxDay, refunded);
+            }
+        }
+
+        int size() { return size; }
+    }
+
+    // fees are booked on the reservation day, refunds on the day they were granted
+    static final class Report {
+        final int firstDay;
+        final int days;
+        final long[] feeFils;
+        final long[] refundFils;
+
+        private Report(int firstDay, int days) {
+            this.firstDay = firstDay;
+            this.days = days;
+            this.feeFils = new long[days * ColumnarCatalog.CATEGORIES.length];
+            this.refundFils = new long[days * ColumnarCatalog.CATEGORIES.length];
+        }
+
+        long fee(LocalDate day, String category) { return cell(feeFils, day, category); }
+
+        long refund(LocalDate day, String category) { return cell(refundFils, day, category); }
+
+        long totalFee() { return Arrays.stream(feeFils).sum(); }
+
+        long totalRefund() { return Arrays.stream(refundFils).sum(); }
+
+        LocalDate day(int i) { return LocalDate.ofEpochDay(firstDay + i); }
+
+        private long cell(long[] values, LocalDate day, String category) {
+            int d = (int) day.toEpochDay() - firstDay;
+            if (d < 0 || d >= days) return 0;
+            return values[d * ColumnarCatalog.CATEGORIES.length + categoryIndex(category)];
+        }
+
+        private Report merge(Report other) {
+            for (int i = 0; i < feeFils.length; i++) {
+                feeFils[i] += other.feeFils[i];
+                refundFils[i] += other.refundFils[i];
+            }
+            return this;
+        }
+    }
+
+    // each chunk sums into its own report and the partial reports are added together, so the workers
+    // never share a counter
+    static Report compute(Batch b) {
+        if (b.size == 0) return new Report(0, 0);
+        int firstDay = b.minDay, days = b.maxDay - b.minDay + 1;
+        int chunks = (b.size + CHUNK - 1) / CHUNK;
+        return IntStream.range(0, chunks).parallel()
+                .mapToObj(c -> computeChunk(b, firstDay, days, c * CHUNK, Math.min(b.size, (c + 1) * CHUNK)))
+                .reduce(Report::merge)
+                .get();
+    }
+
+    private static Report computeChunk(Batch b, int firstDay, int days, int from, int to) {
+        Report r = new Report(firstDay, days);
+        int cats = ColumnarCatalog.CATEGORIES.length;
+        for (int i = from; i < to; i++) {
+            r.feeFils[(b.reservedDay[i] - firstDay) * cats + b.category[i]] += b.feeFils[i];
+            int refunded = b.refundDay[i];
+            if (refunded != NO_DAY) r.refundFils[(refunded - firstDay) * cats + b.category[i]] += b.refundFils[i];
+        }
+        return r;
+    }
+
+    private static int categoryIndex(String category) {
+        int c = Arrays.asList(ColumnarCatalog.CATEGORIES).indexOf(category);
+        if (c < 0) throw new IllegalArgumentException("Unknown category: " + category);
+        return c;
+    }
+}
@@ -0,0 +1,282 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Closed-loop HTTP load generator for SmartCartServer: each simulated connection sends its next
+// request as soon as the previous answer arrives, for a fixed duration.
+//   java LoadTest http://localhost:8080 [--connections 10000] [--seconds 20] [--scenario browse|cart]
+//                 [--users user:user123,admin:admin123]
+// browse pages through the catalog and searches; cart logs the listed users in once and then adds,
+// reads and removes cart lines with their tokens. Latency percentiles come from Metrics histograms;
+// each connection's first response, which includes the wait to be accepted, is reported separately.
+final class LoadTest {
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+    private final String base;
+    private final Metrics.Histogram latency = Metrics.get().histogram("load.latency");
+    // a new connection's first answer also waits for the server to accept it, so it is kept apart
+    private final Metrics.Histogram first = Metrics.get().histogram("load.firstLatency");
+    private final AtomicLong ok = new AtomicLong(), failed = new AtomicLong();
+
+    private LoadTest(String base) { this.base = base; }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: java LoadTest <base-url> [--connections N] [--seconds S] [--scenario browse|cart] [--users u:p,...]");
+            System.exit(2);
+        }
+        int connections = 10_000, seconds = 20;
+        String scenario = "browse", users = "user:user123,admin:admin123";
+        for (int a = 1; a + 1 < args.length; a += 2) {
+            switch (args[a]) {
+                case "--connections": connections = Integer.parseInt(args[a + 1]); break;
+                case "--seconds": seconds = Integer.parseInt(args[a + 1]); break;
+                case "--scenario": scenario = args[a + 1]; break;
+                case "--users": users = args[a + 1]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[a]);
+            }
+        }
+        LoadTest test = new LoadTest(args[0].replaceAll("/+$", ""));
+        List<String> tokens = scenario.equals("cart") ? test.login(users.split(",")) : List.of();
+        List<String> ids = test.productIds();
+        if (ids.isEmpty()) throw new IllegalStateException("The server has no products");
+        test.run(connections, seconds, scenario, tokens, ids);
+        System.exit(0);
+    }
+
+    private List<String> login(String[] users) throws Exception {
+        List<String> tokens = new ArrayList<>();
+        for (String user : users) {
+            String[] up = user.split(":", 2);
+            HttpResponse<String> r = client.send(post("/api/login", "user=" + up[0] + "&password=" + up[1], null),
+                    HttpResponse.BodyHandlers.ofString());
+            if (r.statusCode() != 200) throw new IllegalStateException("Login failed for " + up[0] + ": " + r.body());
+            tokens.add(field(r.body(), "token"));
+        }
+        return tokens;
+    }
+
+    private List<String> productIds() throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (String category : ColumnarCatalog.CATEGORIES) {
+            String body = client.send(get("/api/products?category=" + category + "&limit=200", null),
+                    HttpResponse.BodyHandlers.ofString()).body();
+            for (int at = body.indexOf("\"id\":\""); at >= 0; at = body.indexOf("\"id\":\"", at + 1)) {
+                ids.add(body.substring(at + 6, body.indexOf('"', at + 6)));
+            }
+        }
+        return ids;
+    }
+
+    // One selector thread drives every connection: each holds one keep-alive socket and sends its next
+    // request as soon as the previous response has been read in full. A thread-per-connection client
+    // would spend the machine's CPU on itself long before 10k connections were open.
+    private void run(int connections, int seconds, String scenario, List<String> tokens, List<String> ids)
+            throws IOException {
+        URI uri = URI.create(base);
+        InetSocketAddress address = new InetSocketAddress(uri.getHost(), uri.getPort() < 0 ? 80 : uri.getPort());
+        String host = uri.getHost() + (uri.getPort() < 0 ? "" : ":" + uri.getPort());
+        long start = System.nanoTime(), end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long rampNanos = TimeUnit.SECONDS.toNanos(Math.max(1, Math.min(5, seconds / 4)));
+        int opened = 0, peak = 0, open = 0;
+        try (Selector selector = Selector.open()) {
+            while (true) {
+                long now = System.nanoTime();
+                // connections open evenly over the ramp so the server's accept backlog is not flooded at once
+                int due = now >= start + rampNanos ? connections : (int) ((long) connections * (now - start) / rampNanos);
+                for (; opened < due && now < end; opened++, open++) {
+                    Connection c = new Connection(opened, scenario, tokens, ids, host);
+                    c.channel = SocketChannel.open();
+                    c.channel.configureBlocking(false);
+                    c.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    c.channel.connect(address);
+                    c.channel.register(selector, SelectionKey.OP_CONNECT, c);
+                }
+                peak = Math.max(peak, open);
+                if (now >= end && selector.keys().isEmpty()) break;
+                if (now >= end + TimeUnit.SECONDS.toNanos(60)) break;
+                selector.select(10);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Connection c = (Connection) key.attachment();
+                    try {
+                        if (key.isConnectable()) {
+                            c.channel.finishConnect();
+                            c.send(key);
+                        } else if (key.isWritable()) {
+                            c.flush(key);
+                        } else if (key.isReadable() && c.read()) {
+                            if (c.sent != 0) {
+                                (c.step == 1 ? first : latency).since(c.sent);
+                                if (c.status < 400 || c.status == 409) ok.incrementAndGet(); else failed.incrementAndGet();
+                            }
+                            if (System.nanoTime() < end) {
+                                c.send(key);
+                            } else {
+                                key.cancel();
+                                c.channel.close();
+                                open--;
+                            }
+                        }
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                        key.cancel();
+                        c.channel.close();
+                        open--;
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT, "%d connections (%d open at peak), %s, %.1f s: %d ok, %d failed, %.0f req/s%n",
+                connections, peak, scenario, elapsed, ok.get(), failed.get(), ok.get() / elapsed);
+        System.out.printf(Locale.ROOT, "latency p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+                latency.percentile(0.5) / 1e6, latency.percentile(0.99) / 1e6, latency.percentile(0.999) / 1e6,
+                latency.max() / 1e6);
+        System.out.printf(Locale.ROOT, "first response p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                first.percentile(0.5) / 1e6, first.percentile(0.99) / 1e6, first.max() / 1e6);
+    }
+
+    // one keep-alive connection and the minimal HTTP/1.1 response parsing the server's replies need:
+    // a Content-Length body, or a chunked body ending in the zero-length chunk
+    private static final class Connection {
+        private static final byte[] HEADER_END = { '\r', '\n', '\r', '\n' };
+
+        final int id;
+        final String scenario, host;
+        final List<String> tokens, ids;
+        SocketChannel channel;
+        ByteBuffer out;
+        final ByteBuffer in = ByteBuffer.allocate(16 * 1024);
+        int step, status;
+        long sent, remaining;
+        boolean headersDone, chunked;
+        int tail;
+
+        Connection(int id, String scenario, List<String> tokens, List<String> ids, String host) {
+            this.id = id; this.scenario = scenario; this.tokens = tokens; this.ids = ids; this.host = host;
+        }
+
+        void send(SelectionKey key) throws IOException {
+            out = ByteBuffer.wrap(request().getBytes(StandardCharsets.UTF_8));
+            headersDone = false;
+            in.clear();
+            sent = System.nanoTime();
+            flush(key);
+        }
+
+        void flush(SelectionKey key) throws IOException {
+            channel.write(out);
+            key.interestOps(out.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        // true once the whole response has arrived
+        boolean read() throws IOException {
+            int n = channel.read(in);
+            if (n < 0) throw new IOException("Server closed the connection");
+            in.flip();
+            if (!headersDone) {
+                int at = indexOf(in, HEADER_END);
+                if (at < 0) {
+                    in.compact();
+                    if (!in.hasRemaining()) throw new IOException("Response headers too large");
+                    return false;
+                }
+                String head = StandardCharsets.ISO_8859_1.decode(in.duplicate().limit(at)).toString();
+                in.position(at + HEADER_END.length);
+                status = Integer.parseInt(head.substring(9, 12));
+                String lower = head.toLowerCase(Locale.ROOT);
+                chunked = lower.contains("transfer-encoding: chunked");
+                int cl = lower.indexOf("content-length:");
+                int eol = cl < 0 ? -1 : lower.indexOf('\r', cl);
+                remaining = chunked || cl < 0 ? 0 : Long.parseLong(lower.substring(cl + 15, eol < 0 ? lower.length() : eol).trim());
+                headersDone = true;
+                tail = 0;
+            }
+            boolean complete;
+            if (chunked) {
+                // the body is not kept; remembering how much of "0\r\n\r\n" was last seen is enough
+                while (in.hasRemaining()) {
+                    byte b = in.get();
+                    tail = b == "0\r\n\r\n".charAt(tail) ? tail + 1 : (b == '0' ? 1 : 0);
+                    if (tail == 5) break;
+                }
+                complete = tail == 5;
+            } else {
+                remaining -= in.remaining();
+                complete = remaining <= 0;
+            }
+            in.clear();
+            return complete;
+        }
+
+        private String request() {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            String productId = ids.get(rnd.nextInt(ids.size()));
+            int s = step++;
+            if (scenario.equals("cart")) {
+                String auth = "Authorization: Bearer " + tokens.get(id % tokens.size()) + "\r\n";
+                switch (s % 3) {
+                    case 0: return form("/api/cart/add", "id=" + productId, auth);
+                    case 1: return "GET /api/cart HTTP/1.1\r\nHost: " + host + "\r\n" + auth + "\r\n";
+                    default: return form("/api/cart/remove", "id=" + productId, auth);
+                }
+            }
+            String path = s % 4 == 3
+                    ? "/api/search?q=" + (rnd.nextBoolean() ? "sony" : "shirt") + "&limit=20"
+                    : "/api/products?category=" + ColumnarCatalog.CATEGORIES[s & 1] + "&offset=" + rnd.nextInt(50) + "&limit=20";
+            return "GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n";
+        }
+
+        private String form(String path, String body, String auth) {
+            return "POST " + path + " HTTP/1.1\r\nHost: " + host + "\r\n" + auth
+                    + "Content-Type: application/x-www-form-urlencoded\r\nContent-Length: " + body.length() + "\r\n\r\n" + body;
+        }
+
+        private static int indexOf(ByteBuffer buf, byte[] pattern) {
+            outer:
+            for (int i = buf.position(); i <= buf.limit() - pattern.length; i++) {
+                for (int j = 0; j < pattern.length; j++) if (buf.get(i + j) != pattern[j]) continue outer;
+                return i;
+            }
+            return -1;
+        }
+    }
+
+    private HttpRequest get(String path, String token) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(base + path)).timeout(Duration.ofSeconds(60)).GET();
+        if (token != null) b.header("Authorization", "Bearer " + token);
+        return b.build();
+    }
+
+    private HttpRequest post(String path, String form, String token) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(base + path)).timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form, StandardCharsets.UTF_8));
+        if (token != null) b.header("Authorization", "Bearer " + token);
+        return b.build();
+    }
+
+    private static String field(String json, String name) {
+        int at = json.indexOf("\"" + name + "\":\"") + name.length() + 4;
+        return json.substring(at, json.indexOf('"', at));
+    }
+}
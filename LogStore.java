@@ -0,0 +1,266 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+class LogStore implements SmartCartStore {
+
+    private static final String SNAPSHOT = "snapshot.dat";
+    private static final String LOG = "wal.log";
+    private static final String HEADER = "SMARTCART";
+    private static final int MAX_RECORD = 1 << 20;
+    private static final int MAX_BATCH = 1024;
+    private static final ByteBuffer STOP = ByteBuffer.allocate(0);
+    private static final long ANY_EPOCH = -1;
+
+    private final Path dir;
+    private final FileChannel log;
+    private final BlockingQueue<ByteBuffer> pending = new LinkedBlockingQueue<>();
+    private final AtomicLong logBytes = new AtomicLong();
+    private final Object appendLock = new Object();
+    private final Thread writer;
+
+    private long epoch;
+    private boolean recovered;
+    private boolean closed;
+    private long appended;
+    private long durable;
+    private IOException failure;
+
+    private LogStore(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        this.log = FileChannel.open(dir.resolve(LOG), CREATE, READ, WRITE);
+        this.writer = new Thread(this::writeLoop, "smartcart-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    static LogStore open(Path dir) throws IOException {
+        return new LogStore(dir);
+    }
+
+    @Override
+    public void append(String... record) {
+        ByteBuffer buf = encode(record);
+        synchronized (appendLock) {
+            if (!recovered) throw new IllegalStateException("replay() must run before append()");
+            if (closed) throw new IllegalStateException("Store is closed");
+            pending.add(buf);
+            appended++;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long target;
+        synchronized (appendLock) { target = appended; }
+        synchronized (this) {
+            while (durable < target && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for log flush");
+                }
+            }
+            if (failure != null) throw failure;
+        }
+    }
+
+    @Override
+    public void replay(Consumer<String[]> sink) throws IOException {
+        synchronized (appendLock) {
+            if (recovered) throw new IllegalStateException("Store already replayed");
+            long snapshotEpoch = 0;
+            Path snap = dir.resolve(SNAPSHOT);
+            if (Files.exists(snap)) {
+                try (FileChannel ch = FileChannel.open(snap, READ)) {
+                    long[] header = new long[1];
+                    long end = readRecords(ch, ANY_EPOCH, header, sink);
+                    if (end != ch.size()) throw new IOException("Corrupt snapshot " + snap);
+                    snapshotEpoch = header[0];
+                }
+            }
+            // a log from an older epoch was already folded into the snapshot before a crash, so none of
+            // its records reach the sink
+            long good = readRecords(log, snapshotEpoch, new long[1], sink);
+            if (good < log.size()) log.truncate(good);
+            log.position(good);
+            epoch = snapshotEpoch;
+            if (good == 0) writeHeader();
+            logBytes.set(log.size());
+            recovered = true;
+        }
+    }
+
+    @Override
+    public void snapshot(Iterable<String[]> state) throws IOException {
+        synchronized (appendLock) {
+            flush();
+            Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+            long next = epoch + 1;
+            try (FileChannel ch = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16);
+                writeBuffer(out, encode(HEADER, Long.toString(next)));
+                for (String[] record : state) writeBuffer(out, encode(record));
+                out.flush();
+                ch.force(true);
+            }
+            Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            epoch = next;
+            log.truncate(0);
+            log.position(0);
+            writeHeader();
+            logBytes.set(log.size());
+        }
+    }
+
+    @Override
+    public long logSize() { return logBytes.get(); }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            if (closed) return;
+            closed = true;
+        }
+        try {
+            flush();
+        } finally {
+            pending.add(STOP);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            log.close();
+        }
+    }
+
+    private void writeLoop() {
+        List<ByteBuffer> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            pending.drainTo(batch, MAX_BATCH - 1);
+            boolean stop = batch.remove(STOP);
+            try {
+                if (!batch.isEmpty()) {
+                    // one fsync covers every record that queued up while the previous batch was syncing
+                    ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+                    long written = 0;
+                    while (buffers[buffers.length - 1].hasRemaining()) written += log.write(buffers);
+                    log.force(false);
+                    logBytes.addAndGet(written);
+                }
+            } catch (IOException e) {
+                synchronized (this) { failure = e; }
+            }
+            synchronized (this) {
+                durable += batch.size();
+                notifyAll();
+            }
+            batch.clear();
+            if (stop) return;
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = encode(HEADER, Long.toString(epoch));
+        while (header.hasRemaining()) log.write(header);
+        log.force(true);
+    }
+
+    // returns the length of the valid prefix, or 0 when the header is missing or not from the expected epoch
+    private static long readRecords(FileChannel ch, long expectedEpoch, long[] epoch, Consumer<String[]> sink)
+            throws IOException {
+        ch.position(0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 1 << 16));
+        CRC32 crc = new CRC32();
+        long pos = 0;
+        boolean first = true;
+        while (true) {
+            String[] record;
+            int len;
+            try {
+                len = in.readInt();
+                if (len <= 0 || len > MAX_RECORD) break;
+                byte[] payload = new byte[len];
+                in.readFully(payload);
+                int expected = in.readInt();
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != expected) break;
+                record = decode(payload);
+            } catch (EOFException torn) {
+                break;
+            }
+            if (first) {
+                if (record.length != 2 || !HEADER.equals(record[0])) break;
+                epoch[0] = Long.parseLong(record[1]);
+                if (expectedEpoch != ANY_EPOCH && epoch[0] != expectedEpoch) break;
+                first = false;
+            } else {
+                sink.accept(record);
+            }
+            pos += 8 + len;
+        }
+        return pos;
+    }
+
+    private static void writeBuffer(OutputStream out, ByteBuffer buf) throws IOException {
+        out.write(buf.array(), buf.position(), buf.remaining());
+    }
+
+    // throws IllegalArgumentException if append would refuse the record
+    static void check(String... record) {
+        encode(record);
+    }
+
+    // a record replay could not read back is refused here, before it is queued, rather than being taken
+    // for a torn tail on the next start and cutting off everything written after it
+    private static ByteBuffer encode(String... record) {
+        if (record.length > 0xFFFF) throw new IllegalArgumentException("Record has too many fields: " + record.length);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeShort(record.length);
+            for (String field : record) out.writeUTF(field);
+            out.writeInt(0);
+            ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+            int len = buf.capacity() - 8;
+            if (len > MAX_RECORD) throw new IllegalArgumentException("Record is too large: " + len + " bytes");
+            CRC32 crc = new CRC32();
+            crc.update(buf.array(), 4, len);
+            buf.putInt(0, len);
+            buf.putInt(4 + len, (int) crc.getValue());
+            return buf;
+        } catch (UTFDataFormatException e) {
+            throw new IllegalArgumentException("Record field is too long", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String[] decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String[] record = new String[in.readUnsignedShort()];
+        for (int i = 0; i < record.length; i++) record[i] = in.readUTF();
+        return record;
+    }
+}
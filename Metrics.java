@@ -0,0 +1,327 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.*;
+
+// Process-wide counters, gauges and latency histograms. Recording is a few uncontended adds, so the
+// hot paths call it unconditionally; -Dsmartcart.metrics=off turns every record into a no-op.
+// Read through dump() or over JMX as smartcart:type=Metrics once registerMBean() has run.
+final class Metrics {
+
+    static final boolean ENABLED = !"off".equals(System.getProperty("smartcart.metrics"));
+    private static final Metrics SHARED = new Metrics();
+
+    static Metrics get() { return SHARED; }
+
+    static final class Counter {
+        private final LongAdder adder = new LongAdder();
+
+        void increment() { if (ENABLED) adder.increment(); }
+        void add(long n) { if (ENABLED) adder.add(n); }
+        long value() { return adder.sum(); }
+    }
+
+    // HdrHistogram-style log-linear buckets: 16 sub-buckets per power of two keep every recorded
+    // value within 6.25% of its bucket while the whole range up to 2^63 ns needs only 1024 slots
+    static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int SAMPLE = 1024;
+        private static final long UNTIMED = Long.MIN_VALUE;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        // calls through start(); a plain field, so concurrent calls may lose the odd increment, which only
+        // shifts which call gets sampled and nudges count() by a few
+        private long ticks;
+
+        void record(long nanos) {
+            if (!ENABLED) return;
+            long v = Math.max(0, nanos);
+            buckets.incrementAndGet(bucket(v));
+            count.increment();
+            sum.add(v);
+            if (v > max.get()) max.accumulateAndGet(v, Math::max);
+        }
+
+        // elapsed time since a System.nanoTime() start
+        void since(long start) { record(System.nanoTime() - start); }
+
+        // for paths too short to afford two clock reads per call: times one call in SAMPLE and only
+        // counts the others, so percentiles come from the sample while count() still covers every call
+        long start() {
+            if (!ENABLED) return UNTIMED;
+            return (++ticks & (SAMPLE - 1)) == 0 ? System.nanoTime() : UNTIMED;
+        }
+
+        void stop(long start) {
+            if (start != UNTIMED) since(start);
+        }
+
+        // sampled calls are already in count
+        long count() { return count.sum() + ticks - ticks / SAMPLE; }
+        long max() { return max.get(); }
+        double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : sum.sum() / (double) n;
+        }
+
+        // upper bound of the bucket holding the q-th quantile
+        long percentile(double q) {
+            long n = count.sum();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(q * n), seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return Math.min(upper(i), max.get());
+            }
+            return max.get();
+        }
+
+        private static int bucket(long v) {
+            if (v < SUB) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            return ((exp - SUB_BITS + 1) << SUB_BITS) | (int) ((v >>> (exp - SUB_BITS)) & (SUB - 1));
+        }
+
+        private static long upper(int bucket) {
+            if (bucket < SUB) return bucket;
+            int exp = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+            long base = (1L << exp) | ((long) (bucket & (SUB - 1)) << (exp - SUB_BITS));
+            return base + (1L << (exp - SUB_BITS)) - 1;
+        }
+    }
+
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private boolean registered;
+
+    private Metrics() { }
+
+    // look-ups are for wiring; hot paths keep the returned instance in a field
+    Counter counter(String name) { return counters.computeIfAbsent(name, n -> new Counter()); }
+
+    Histogram histogram(String name) { return histograms.computeIfAbsent(name, n -> new Histogram()); }
+
+    void gauge(String name, LongSupplier value) { gauges.put(name, value); }
+
+    Runnable timed(String name, Runnable task) {
+        Histogram h = histogram(name);
+        return () -> {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                h.since(start);
+            }
+        };
+    }
+
+    void dump(Appendable out) {
+        try {
+            for (Map.Entry<String, Counter> e : counters.entrySet()) {
+                out.append(e.getKey()).append(' ').append(Long.toString(e.getValue().value())).append('\n');
+            }
+            for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) {
+                out.append(e.getKey()).append(' ').append(Long.toString(e.getValue().getAsLong())).append('\n');
+            }
+            for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+                Histogram h = e.getValue();
+                out.append(String.format(Locale.ROOT, "%s count=%d mean=%s p50=%s p99=%s p999=%s max=%s%n",
+                        e.getKey(), h.count(), micros((long) h.mean()), micros(h.percentile(0.5)),
+                        micros(h.percentile(0.99)), micros(h.percentile(0.999)), micros(h.max())));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    String dump() {
+        StringBuilder sb = new StringBuilder();
+        dump(sb);
+        return sb.toString();
+    }
+
+    private static String micros(long nanos) { return String.format(Locale.ROOT, "%.1fus", nanos / 1000.0); }
+
+    // loading JMX costs startup time, so only long-running front ends register
+    synchronized void registerMBean() {
+        if (registered) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName("smartcart:type=Metrics"));
+            registered = true;
+        } catch (JMException e) {
+            System.err.println("SmartCart: metrics MBean not registered: " + e.getMessage());
+        }
+    }
+
+    // attributes are discovered on every getMBeanInfo, so metrics created later still show up
+    private final class Bean implements DynamicMBean {
+        private static final String COUNT = ".count", P50 = ".p50Micros", P99 = ".p99Micros", MAX = ".maxMicros";
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Counter c = counters.get(attribute);
+            if (c != null) return c.value();
+            LongSupplier g = gauges.get(attribute);
+            if (g != null) return g.getAsLong();
+            int dot = attribute.lastIndexOf('.');
+            Histogram h = dot < 0 ? null : histograms.get(attribute.substring(0, dot));
+            if (h != null) {
+                switch (attribute.substring(dot)) {
+                    case COUNT: return h.count();
+                    case P50: return h.percentile(0.5) / 1000.0;
+                    case P99: return h.percentile(0.99) / 1000.0;
+                    case MAX: return h.max() / 1000.0;
+                    default: break;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String a : attributes) {
+                try {
+                    list.add(new Attribute(a, getAttribute(a)));
+                } catch (AttributeNotFoundException ignored) {
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) { return new AttributeList(); }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            if ("dump".equals(action)) return dump();
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attrs = new ArrayList<>();
+            for (String name : counters.keySet()) attrs.add(attribute(name, "long", "counter"));
+            for (String name : gauges.keySet()) attrs.add(attribute(name, "long", "gauge"));
+            for (String name : histograms.keySet()) {
+                attrs.add(attribute(name + COUNT, "long", "samples"));
+                attrs.add(attribute(name + P50, "double", "median latency"));
+                attrs.add(attribute(name + P99, "double", "99th percentile latency"));
+                attrs.add(attribute(name + MAX, "double", "worst latency"));
+            }
+            MBeanOperationInfo dump = new MBeanOperationInfo("dump", "All metrics as text",
+                    new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO);
+            return new MBeanInfo(Metrics.class.getName(), "SmartCart runtime metrics",
+                    attrs.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] { dump }, null);
+        }
+
+        private MBeanAttributeInfo attribute(String name, String type, String description) {
+            return new MBeanAttributeInfo(name, type, description, true, false, false);
+        }
+    }
+
+    // Times every AWT event through a pushed EventQueue. Events slower than the threshold count as
+    // stalls; an event still running past the threshold is reported once with the EDT's stack so the
+    // blocking code shows up while it is blocking, not after.
+    static final class EdtWatchdog extends EventQueue {
+        private final long thresholdNanos;
+        private final Histogram events = get().histogram("edt.event");
+        private final Counter stalls = get().counter("edt.stalls");
+        private volatile long dispatchStart;
+        private volatile long resumed;
+        private volatile Thread edt;
+        private long dispatched;
+        private long reported;
+
+        private EdtWatchdog(long thresholdMillis) {
+            this.thresholdNanos = thresholdMillis * 1_000_000L;
+        }
+
+        static void install(long thresholdMillis) {
+            EdtWatchdog queue = new EdtWatchdog(thresholdMillis);
+            Toolkit.getDefaultToolkit().getSystemEventQueue().push(queue);
+            Thread monitor = new Thread(queue::watch, "smartcart-edt-watchdog");
+            monitor.setDaemon(true);
+            monitor.start();
+        }
+
+        @Override
+        protected void dispatchEvent(AWTEvent event) {
+            long start = System.nanoTime();
+            long seq = ++dispatched;
+            edt = Thread.currentThread();
+            long outer = dispatchStart;
+            dispatchStart = start;
+            resumed = start;
+            try {
+                super.dispatchEvent(event);
+            } finally {
+                // a modal dialog's loop dispatches inside the event that opened it; that event is watched
+                // again from the moment it gets control back
+                dispatchStart = outer;
+                resumed = System.nanoTime();
+                // an event that ran a modal dialog's loop spent that time waiting for the user, not stalling
+                if (dispatched == seq) {
+                    long took = System.nanoTime() - start;
+                    events.record(took);
+                    if (took > thresholdNanos) stalls.increment();
+                }
+            }
+        }
+
+        private void watch() {
+            long period = Math.max(1, thresholdNanos / 2_000_000L);
+            while (true) {
+                try {
+                    Thread.sleep(period);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long start = dispatchStart;
+                Thread thread = edt;
+                if (start == 0 || thread == null || start == reported) continue;
+                long running = System.nanoTime() - Math.max(start, resumed);
+                if (running < thresholdNanos) continue;
+                StackTraceElement[] stack = thread.getStackTrace();
+                if (waitingForEvents(stack)) continue;
+                reported = start;
+                StringBuilder sb = new StringBuilder("SmartCart: EDT blocked for ")
+                        .append(running / 1_000_000).append(" ms\n");
+                for (StackTraceElement frame : stack) sb.append("\tat ").append(frame).append('\n');
+                System.err.print(sb);
+            }
+        }
+
+        // an event running a modal dialog's loop sits here while the user reads the dialog
+        private static boolean waitingForEvents(StackTraceElement[] stack) {
+            for (StackTraceElement frame : stack) {
+                if (frame.getClassName().equals("java.awt.EventQueue") && frame.getMethodName().equals("getNextEvent")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class OrderService {
+
+    static final long COD_FEE_FILS = 2000;
+    // a retry is recognised for this long after its order, or until this many newer orders push it out
+    static final Duration KEY_TTL = Duration.ofHours(1);
+    static final int MAX_KEYS = 1 << 18;
+
+    enum PaymentMethod {
+        CASH_ON_DELIVERY("Cash on Delivery"), CARD("Card Payment"), UPI("UPI");
+
+        final String label;
+
+        PaymentMethod(String label) { this.label = label; }
+
+        static PaymentMethod fromLabel(String label) {
+            for (PaymentMethod m : values()) if (m.label.equals(label)) return m;
+            throw new IllegalArgumentException("Unknown payment method: " + label);
+        }
+
+        // the short codes the CLI and HTTP API accept
+        static PaymentMethod fromCode(String code) {
+            switch (code.toUpperCase(Locale.ROOT)) {
+                case "COD": return CASH_ON_DELIVERY;
+                case "CARD": return CARD;
+                case "UPI": return UPI;
+                default: throw new IllegalArgumentException("unknown payment " + code);
+            }
+        }
+    }
+
+    static final class CheckoutRequest {
+        final String user;
+        final String idempotencyKey;
+        final String name;
+        final String address;
+        final String phone;
+        final PaymentMethod payment;
+        String cardNumber = "";
+        String cardExpiry = "";
+        String cardCvv = "";
+        String upiId = "";
+
+        CheckoutRequest(String user, String idempotencyKey, String name, String address, String phone,
+                        PaymentMethod payment) {
+            this.user = user;
+            this.idempotencyKey = idempotencyKey;
+            this.name = name.trim();
+            this.address = address.trim();
+            this.phone = phone.trim();
+            this.payment = payment;
+        }
+    }
+
+    static final class Order {
+        final String id;
+        final CheckoutRequest request;
+        final List<SmartCartApp.Cart.Line> lines;
+        final long subtotalFils;
+        final long feeFils;
+        final LocalDateTime placedAt;
+
+        Order(String id, CheckoutRequest request, List<SmartCartApp.Cart.Line> lines, long subtotalFils,
+              long feeFils, LocalDateTime placedAt) {
+            this.id = id;
+            this.request = request;
+            this.lines = lines;
+            this.subtotalFils = subtotalFils;
+            this.feeFils = feeFils;
+            this.placedAt = placedAt;
+        }
+
+        long totalFils() { return subtotalFils + feeFils; }
+    }
+
+    static final class CheckoutException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        CheckoutException(String message) { super(message); }
+    }
+
+    // a key belongs to the user who first sent it; another user's request with it is refused
+    private static final class Claim {
+        final String user;
+        final CompletableFuture<Order> order = new CompletableFuture<>();
+
+        Claim(String user) { this.user = user; }
+    }
+
+    // a key that succeeded, queued in completion order so the oldest can be evicted
+    private static final class Placed {
+        final String key;
+        final Claim claim;
+        final long expires;
+
+        Placed(String key, Claim claim, long expires) {
+            this.key = key;
+            this.claim = claim;
+            this.expires = expires;
+        }
+    }
+
+    private final SmartCartManager manager;
+    private final ConcurrentHashMap<String, Claim> byKey = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Placed> placed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger placedCount = new AtomicInteger();
+    private final AtomicLong nextOrderId = new AtomicLong(1);
+    private final ExecutorService workers = Threads.perTask("smartcart-order");
+    private final EnumMap<PaymentMethod, Metrics.Histogram> checkoutTime = new EnumMap<>(PaymentMethod.class);
+    private final Metrics.Counter checkoutFailed = Metrics.get().counter("checkout.failed");
+
+    OrderService(SmartCartManager manager) {
+        this.manager = manager;
+        for (PaymentMethod m : PaymentMethod.values()) {
+            checkoutTime.put(m, Metrics.get().histogram("checkout." + m.name().toLowerCase(Locale.ROOT)));
+        }
+    }
+
+    CompletableFuture<Order> submit(CheckoutRequest request) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return place(request);
+            } catch (CheckoutException e) {
+                throw new CompletionException(e);
+            }
+        }, workers);
+    }
+
+    // a retried request with the same key gets the original order, carrying the original request,
+    // instead of a second one
+    Order place(CheckoutRequest request) throws CheckoutException {
+        evictKeys(System.nanoTime());
+        Claim mine = new Claim(request.user);
+        Claim existing = byKey.putIfAbsent(request.idempotencyKey, mine);
+        if (existing != null) {
+            if (!existing.user.equals(request.user)) {
+                checkoutFailed.increment();
+                throw new CheckoutException("This checkout key belongs to another account.");
+            }
+            return await(existing.order);
+        }
+        long start = System.nanoTime();
+        try {
+            Order order = process(request);
+            mine.order.complete(order);
+            remember(request.idempotencyKey, mine, System.nanoTime() + KEY_TTL.toNanos());
+            checkoutTime.get(request.payment).since(start);
+            return order;
+        } catch (CheckoutException | RuntimeException e) {
+            checkoutFailed.increment();
+            // failed attempts do not claim the key, so the client can fix the input and retry
+            byKey.remove(request.idempotencyKey, mine);
+            mine.order.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private Order process(CheckoutRequest request) throws CheckoutException {
+        validate(request);
+        // checked first so an empty cart does not use up an order id
+        if (manager.session(request.user).getCart().isEmpty()) throw new CheckoutException("Cart is empty.");
+        long fee = request.payment == PaymentMethod.CASH_ON_DELIVERY ? COD_FEE_FILS : 0;
+        String id = "O" + nextOrderId.getAndIncrement();
+        LocalDateTime placedAt = LocalDateTime.now();
+        List<SmartCartApp.Cart.Line> lines = manager.takeCart(request, id, placedAt, fee);
+        if (lines.isEmpty()) throw new CheckoutException("Cart is empty.");
+        long subtotal = 0;
+        for (SmartCartApp.Cart.Line line : lines) subtotal += line.subtotalFils();
+        Order order = new Order(id, request, lines, subtotal, fee, placedAt);
+        manager.recordOrder(order);
+        manager.getAudit().record(AuditLog.Type.ORDER, request.user, order.id, order.totalFils());
+        return order;
+    }
+
+    // keeps new order ids above those already in the order history, and lets a retry of a recent order
+    // find it after a restart; the restored order has its totals but not its lines
+    void restored(String orderId, String key, String user, PaymentMethod payment, long subtotalFils, long feeFils,
+                  LocalDateTime placedAt) {
+        long n = Long.parseLong(orderId.substring(1));
+        nextOrderId.accumulateAndGet(n + 1, Math::max);
+        if (key == null) return;
+        Duration left = KEY_TTL.minus(Duration.between(placedAt, LocalDateTime.now()));
+        if (left.isNegative() || left.isZero()) return;
+        CheckoutRequest request = new CheckoutRequest(user, key, "", "", "", payment);
+        Claim claim = new Claim(user);
+        claim.order.complete(new Order(orderId, request, List.of(), subtotalFils, feeFils, placedAt));
+        if (byKey.putIfAbsent(key, claim) == null) remember(key, claim, System.nanoTime() + left.toNanos());
+    }
+
+    private void remember(String key, Claim claim, long expires) {
+        placed.add(new Placed(key, claim, expires));
+        placedCount.incrementAndGet();
+    }
+
+    // drops keys older than KEY_TTL and, past MAX_KEYS, the oldest ones, so the map stays bounded
+    // however many orders go through
+    private void evictKeys(long now) {
+        while (true) {
+            Placed oldest = placed.peek();
+            if (oldest == null || (oldest.expires - now > 0 && placedCount.get() <= MAX_KEYS)) return;
+            if (placed.remove(oldest)) {
+                placedCount.decrementAndGet();
+                byKey.remove(oldest.key, oldest.claim);
+            }
+        }
+    }
+
+    static void validate(CheckoutRequest r) throws CheckoutException {
+        Validators.Result result = Validators.checkout(r, YearMonth.now());
+        if (result != Validators.Result.OK) throw new CheckoutException(result.message);
+    }
+
+    static String maskCard(String card) {
+        if (card.length() < 4) return card;
+        return "**** **** **** " + card.substring(card.length()-4);
+    }
+
+    private static Order await(CompletableFuture<Order> order) throws CheckoutException {
+        try {
+            return order.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof CheckoutException) throw (CheckoutException) e.getCause();
+            throw e;
+        }
+    }
+}
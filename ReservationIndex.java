@@ -0,0 +1,118 @@
+import java.util.*;
+
+// Reservations by id, by owner and by owner and status. Reservations recorded before they had an
+// owner are shared and listed for every user.
+class ReservationIndex {
+
+    static final String SHARED = "";
+
+    // an owner's reservations in the order they were made, plus for each status a Fenwick tree over
+    // those positions so the k-th reservation with a status is found in O(log n)
+    private static final class Owner {
+        final List<SmartCartApp.Reservation> list = new ArrayList<>();
+        final EnumMap<SmartCartApp.Reservation.Status, Counts> byStatus = new EnumMap<>(SmartCartApp.Reservation.Status.class);
+
+        Counts counts(SmartCartApp.Reservation.Status status) {
+            return byStatus.computeIfAbsent(status, s -> new Counts());
+        }
+    }
+
+    private static final class Counts {
+        int[] tree = new int[17];
+        int total;
+
+        void add(int position, int delta) {
+            // capacities stay powers of two, so on doubling only the new root covers existing positions
+            while (position + 1 >= tree.length) {
+                int capacity = tree.length - 1;
+                int[] grown = Arrays.copyOf(tree, capacity * 2 + 1);
+                grown[capacity * 2] = total;
+                tree = grown;
+            }
+            for (int i = position + 1; i < tree.length; i += i & -i) tree[i] += delta;
+            total += delta;
+        }
+
+        // position of the k-th member, counting from zero
+        int select(int k) {
+            int pos = 0;
+            for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+                if (pos + step < tree.length && tree[pos + step] <= k) {
+                    pos += step;
+                    k -= tree[pos];
+                }
+            }
+            return pos;
+        }
+    }
+
+    private final List<SmartCartApp.Reservation> all = new ArrayList<>();
+    private final Map<Long, SmartCartApp.Reservation> byId = new HashMap<>();
+    private final Map<Long, Integer> positions = new HashMap<>();
+    private final Map<String, Owner> owners = new HashMap<>();
+    private final int[] statusTotals = new int[SmartCartApp.Reservation.Status.values().length];
+
+    synchronized void add(SmartCartApp.Reservation r) {
+        all.add(r);
+        byId.put(r.id, r);
+        Owner owner = owners.computeIfAbsent(r.user, u -> new Owner());
+        positions.put(r.id, owner.list.size());
+        owner.counts(r.status).add(owner.list.size(), 1);
+        owner.list.add(r);
+        statusTotals[r.status.ordinal()]++;
+    }
+
+    synchronized void setStatus(SmartCartApp.Reservation r, SmartCartApp.Reservation.Status status) {
+        Owner owner = owners.get(r.user);
+        int position = positions.get(r.id);
+        owner.counts(r.status).add(position, -1);
+        statusTotals[r.status.ordinal()]--;
+        statusTotals[status.ordinal()]++;
+        r.status = status;
+        owner.counts(status).add(position, 1);
+    }
+
+    synchronized SmartCartApp.Reservation get(long id) { return byId.get(id); }
+
+    synchronized List<SmartCartApp.Reservation> all() { return new ArrayList<>(all); }
+
+    synchronized int count(String user, SmartCartApp.Reservation.Status status) {
+        int n = count(owners.get(SHARED), status);
+        if (!SHARED.equals(user)) n += count(owners.get(user), status);
+        return n;
+    }
+
+    // across every owner
+    synchronized int count(SmartCartApp.Reservation.Status status) { return statusTotals[status.ordinal()]; }
+
+    // one page of a user's reservations in the order they were made; status null means any status
+    synchronized List<SmartCartApp.Reservation> page(String user, SmartCartApp.Reservation.Status status,
+                                                     int offset, int limit) {
+        List<SmartCartApp.Reservation> page = new ArrayList<>(Math.max(0, limit));
+        offset = take(owners.get(SHARED), status, offset, limit, page);
+        if (!SHARED.equals(user)) take(owners.get(user), status, offset, limit, page);
+        return page;
+    }
+
+    private static int count(Owner owner, SmartCartApp.Reservation.Status status) {
+        if (owner == null) return 0;
+        if (status == null) return owner.list.size();
+        Counts counts = owner.byStatus.get(status);
+        return counts == null ? 0 : counts.total;
+    }
+
+    // copies at most limit - page.size() entries from offset on; returns the offset left for the next owner
+    private static int take(Owner owner, SmartCartApp.Reservation.Status status, int offset, int limit,
+                            List<SmartCartApp.Reservation> page) {
+        int size = count(owner, status);
+        if (offset >= size) return offset - size;
+        int end = Math.min(size, offset + limit - page.size());
+        if (status == null) {
+            page.addAll(owner.list.subList(offset, end));
+        } else {
+            Counts counts = owner.byStatus.get(status);
+            for (int k = offset; k < end; k++) page.add(owner.list.get(counts.select(k)));
+        }
+        return 0;
+    }
+}
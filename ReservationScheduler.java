@@ -0,0 +1,63 @@
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+final class ReservationScheduler implements AutoCloseable {
+
+    private final SmartCartManager manager;
+    private final Clock clock;
+    private final PriorityQueue<SmartCartApp.Reservation> byPlannedDate =
+            new PriorityQueue<>(Comparator.comparing((SmartCartApp.Reservation r) -> r.plannedPurchaseDate));
+    private final CopyOnWriteArrayList<Consumer<SmartCartApp.Reservation>> listeners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService timer;
+
+    ReservationScheduler(SmartCartManager manager, Clock clock) {
+        this.manager = manager;
+        this.clock = clock;
+    }
+
+    synchronized void track(SmartCartApp.Reservation r) {
+        if (r.status == SmartCartApp.Reservation.Status.ACTIVE) byPlannedDate.add(r);
+    }
+
+    void addListener(Consumer<SmartCartApp.Reservation> listener) { listeners.add(listener); }
+
+    synchronized void start(long period, TimeUnit unit) {
+        if (timer != null) return;
+        timer = Executors.newSingleThreadScheduledExecutor(Threads.daemon("smartcart-reservation-sweeper"));
+        timer.scheduleAtFixedRate(this::sweep, 0, period, unit);
+    }
+
+    // only reservations whose planned date has passed are touched; cancelled or purchased ones are
+    // dropped lazily when they reach the head of the queue
+    int sweep() {
+        LocalDate today = LocalDate.now(clock);
+        int expired = 0;
+        while (true) {
+            SmartCartApp.Reservation r;
+            synchronized (this) {
+                r = byPlannedDate.peek();
+                if (r == null || !r.plannedPurchaseDate.isBefore(today)) break;
+                byPlannedDate.poll();
+            }
+            if (manager.expireReservation(r, today)) {
+                expired++;
+                for (Consumer<SmartCartApp.Reservation> l : listeners) l.accept(r);
+            }
+        }
+        return expired;
+    }
+
+    synchronized int pending() { return byPlannedDate.size(); }
+
+    @Override
+    public synchronized void close() {
+        if (timer != null) timer.shutdownNow();
+    }
+}
@@ -0,0 +1,241 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.IntStream;
+
+// Order history kept as columns of order lines in fixed-size chunks, with running totals per product,
+// payment method and category per day updated as each order arrives. Ad hoc group-by queries over a
+// date range scan the columns chunk by chunk in parallel.
+final class SalesAnalytics {
+
+    enum Dimension { DAY, CATEGORY, PRODUCT, PAYMENT }
+
+    static final class Row {
+        final String key;
+        final long units;
+        final long revenueFils;
+
+        Row(String key, long units, long revenueFils) {
+            this.key = key;
+            this.units = units;
+            this.revenueFils = revenueFils;
+        }
+
+        @Override public String toString() { return key + " units=" + units + " revenue=" + revenueFils / 100.0; }
+    }
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+    private static final OrderService.PaymentMethod[] PAYMENTS = OrderService.PaymentMethod.values();
+    private static final int CATS = ColumnarCatalog.CATEGORIES.length;
+
+    // product dictionary
+    private final Map<String, Integer> productCodes = new HashMap<>();
+    private final List<String> productIds = new ArrayList<>();
+    private byte[] productCategory = new byte[1024];
+
+    // order line columns
+    private int[][] days = new int[0][];
+    private int[][] products = new int[0][];
+    private int[][] quantities = new int[0][];
+    private long[][] amounts = new long[0][];
+    private byte[][] payments = new byte[0][];
+    private int lines;
+    private long orders;
+
+    // running totals
+    private long[] productUnits = new long[1024];
+    private long[] productRevenue = new long[1024];
+    private final long[] paymentUnits = new long[PAYMENTS.length];
+    private final long[] paymentRevenue = new long[PAYMENTS.length];
+    private final long[] paymentFees = new long[PAYMENTS.length];
+    private final TreeMap<Integer, long[]> dayCategory = new TreeMap<>();
+
+    synchronized void add(OrderService.Order order) {
+        int day = (int) order.placedAt.toLocalDate().toEpochDay();
+        int payment = order.request.payment.ordinal();
+        for (SmartCartApp.Cart.Line line : order.lines) {
+            add(day, line.product.getId(), line.product.getCategory(), line.quantity, line.subtotalFils(), payment);
+        }
+        addOrder(order.request.payment, order.feeFils);
+    }
+
+    // counts an order whose lines were added one by one
+    synchronized void addOrder(OrderService.PaymentMethod payment, long feeFils) {
+        paymentFees[payment.ordinal()] += feeFils;
+        orders++;
+    }
+
+    synchronized void add(int day, String productId, String category, int quantity, long amountFils, int payment) {
+        int product = productCode(productId, category);
+        int chunk = lines >>> CHUNK_BITS, row = lines & (CHUNK - 1);
+        if (chunk == days.length) {
+            days = Arrays.copyOf(days, chunk + 1);
+            products = Arrays.copyOf(products, chunk + 1);
+            quantities = Arrays.copyOf(quantities, chunk + 1);
+            amounts = Arrays.copyOf(amounts, chunk + 1);
+            payments = Arrays.copyOf(payments, chunk + 1);
+            days[chunk] = new int[CHUNK];
+            products[chunk] = new int[CHUNK];
+            quantities[chunk] = new int[CHUNK];
+            amounts[chunk] = new long[CHUNK];
+            payments[chunk] = new byte[CHUNK];
+        }
+        days[chunk][row] = day;
+        products[chunk][row] = product;
+        quantities[chunk][row] = quantity;
+        amounts[chunk][row] = amountFils;
+        payments[chunk][row] = (byte) payment;
+        lines++;
+
+        productUnits[product] += quantity;
+        productRevenue[product] += amountFils;
+        paymentUnits[payment] += quantity;
+        paymentRevenue[payment] += amountFils;
+        long[] cell = dayCategory.computeIfAbsent(day, d -> new long[CATS * 2]);
+        cell[productCategory[product] * 2] += quantity;
+        cell[productCategory[product] * 2 + 1] += amountFils;
+    }
+
+    synchronized int lines() { return lines; }
+
+    synchronized long orders() { return orders; }
+
+    synchronized long fees(OrderService.PaymentMethod payment) { return paymentFees[payment.ordinal()]; }
+
+    // all-time totals, answered from the running totals without touching the order lines
+    synchronized List<Row> totals(Dimension dimension) {
+        List<Row> rows = new ArrayList<>();
+        switch (dimension) {
+            case PRODUCT:
+                for (int p = 0; p < productIds.size(); p++) rows.add(new Row(productIds.get(p), productUnits[p], productRevenue[p]));
+                break;
+            case PAYMENT:
+                for (int m = 0; m < PAYMENTS.length; m++) rows.add(new Row(PAYMENTS[m].label, paymentUnits[m], paymentRevenue[m]));
+                break;
+            case CATEGORY: {
+                long[] sums = new long[CATS * 2];
+                for (long[] cell : dayCategory.values()) for (int i = 0; i < sums.length; i++) sums[i] += cell[i];
+                for (int c = 0; c < CATS; c++) rows.add(new Row(ColumnarCatalog.CATEGORIES[c], sums[c * 2], sums[c * 2 + 1]));
+                break;
+            }
+            case DAY:
+                for (Map.Entry<Integer, long[]> e : dayCategory.entrySet()) {
+                    long units = 0, revenue = 0;
+                    for (int c = 0; c < CATS; c++) { units += e.getValue()[c * 2]; revenue += e.getValue()[c * 2 + 1]; }
+                    rows.add(new Row(LocalDate.ofEpochDay(e.getKey()).toString(), units, revenue));
+                }
+                break;
+        }
+        return rows;
+    }
+
+    // revenue per category for each day in the range, from the running totals
+    synchronized SortedMap<LocalDate, long[]> revenueByCategoryPerDay(LocalDate from, LocalDate to) {
+        SortedMap<LocalDate, long[]> result = new TreeMap<>();
+        for (Map.Entry<Integer, long[]> e : dayCategory.subMap((int) from.toEpochDay(), true, (int) to.toEpochDay(), true).entrySet()) {
+            long[] revenue = new long[CATS];
+            for (int c = 0; c < CATS; c++) revenue[c] = e.getValue()[c * 2 + 1];
+            result.put(LocalDate.ofEpochDay(e.getKey()), revenue);
+        }
+        return result;
+    }
+
+    // a bounded heap over the running totals, so only n rows are ever built
+    synchronized List<Row> topProducts(int n) {
+        PriorityQueue<Integer> best = new PriorityQueue<>(Comparator.comparingLong((Integer p) -> productRevenue[p]));
+        for (int p = 0; p < productIds.size(); p++) {
+            if (best.size() < n) {
+                best.add(p);
+            } else if (n > 0 && productRevenue[p] > productRevenue[best.peek()]) {
+                best.poll();
+                best.add(p);
+            }
+        }
+        List<Row> rows = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            int p = best.poll();
+            rows.add(new Row(productIds.get(p), productUnits[p], productRevenue[p]));
+        }
+        Collections.reverse(rows);
+        return rows;
+    }
+
+    // group-by over the order lines placed between from and to inclusive; null filters match everything
+    List<Row> query(Dimension dimension, LocalDate from, LocalDate to, String category,
+                    OrderService.PaymentMethod payment) {
+        int[][] dayCol; int[][] productCol; int[][] quantityCol; long[][] amountCol; byte[][] paymentCol;
+        byte[] categoryOf;
+        List<String> ids;
+        int size;
+        // rows below size never change, so the scan works on these references without holding the lock
+        synchronized (this) {
+            dayCol = days; productCol = products; quantityCol = quantities; amountCol = amounts; paymentCol = payments;
+            categoryOf = productCategory;
+            ids = new ArrayList<>(productIds);
+            size = lines;
+        }
+        int lo = (int) from.toEpochDay(), hi = (int) to.toEpochDay();
+        int wantCategory = category == null ? -1 : Arrays.asList(ColumnarCatalog.CATEGORIES).indexOf(category);
+        if (category != null && wantCategory < 0) throw new IllegalArgumentException("Unknown category: " + category);
+        int wantPayment = payment == null ? -1 : payment.ordinal();
+        int groups;
+        switch (dimension) {
+            case DAY: groups = Math.max(0, hi - lo + 1); break;
+            case CATEGORY: groups = CATS; break;
+            case PAYMENT: groups = PAYMENTS.length; break;
+            default: groups = ids.size();
+        }
+        int chunks = (size + CHUNK - 1) >>> CHUNK_BITS;
+        long[] sums = IntStream.range(0, chunks).parallel().collect(() -> new long[groups * 2], (acc, c) -> {
+            int[] d = dayCol[c], p = productCol[c], q = quantityCol[c];
+            long[] a = amountCol[c];
+            byte[] m = paymentCol[c];
+            int end = Math.min(CHUNK, size - (c << CHUNK_BITS));
+            for (int i = 0; i < end; i++) {
+                if (d[i] < lo || d[i] > hi) continue;
+                if (wantPayment >= 0 && m[i] != wantPayment) continue;
+                if (wantCategory >= 0 && categoryOf[p[i]] != wantCategory) continue;
+                int g;
+                switch (dimension) {
+                    case DAY: g = d[i] - lo; break;
+                    case CATEGORY: g = categoryOf[p[i]]; break;
+                    case PAYMENT: g = m[i]; break;
+                    default: g = p[i];
+                }
+                acc[g * 2] += q[i];
+                acc[g * 2 + 1] += a[i];
+            }
+        }, (x, y) -> { for (int i = 0; i < x.length; i++) x[i] += y[i]; });
+
+        List<Row> rows = new ArrayList<>();
+        for (int g = 0; g < groups; g++) {
+            if (sums[g * 2] == 0 && sums[g * 2 + 1] == 0) continue;
+            String key;
+            switch (dimension) {
+                case DAY: key = LocalDate.ofEpochDay(lo + g).toString(); break;
+                case CATEGORY: key = ColumnarCatalog.CATEGORIES[g]; break;
+                case PAYMENT: key = PAYMENTS[g].label; break;
+                default: key = ids.get(g);
+            }
+            rows.add(new Row(key, sums[g * 2], sums[g * 2 + 1]));
+        }
+        return rows;
+    }
+
+    private int productCode(String id, String category) {
+        Integer code = productCodes.get(id);
+        if (code != null) return code;
+        int c = productIds.size();
+        if (c == productCategory.length) {
+            productCategory = Arrays.copyOf(productCategory, c * 2);
+            productUnits = Arrays.copyOf(productUnits, c * 2);
+            productRevenue = Arrays.copyOf(productRevenue, c * 2);
+        }
+        int cat = Arrays.asList(ColumnarCatalog.CATEGORIES).indexOf(category);
+        if (cat < 0) throw new IllegalArgumentException("Unknown category: " + category);
+        productCategory[c] = (byte) cat;
+        productIds.add(id);
+        productCodes.put(id, c);
+        return c;
+    }
+}
@@ -0,0 +1,279 @@
+import java.util.*;
+
+// Product name search: an inverted index from terms to products, a sorted term dictionary for
+// prefix matches and a trigram index over terms for typo tolerance.
+class SearchIndex {
+
+    private static final int EXACT = 3, PREFIX = 2, FUZZY = 1;
+    private static final int MAX_EXPANSION = 4096;
+
+    private static final class Postings {
+        int[] ids = new int[2];
+        int size;
+        // frequent terms also keep a bitmap, which is no larger than their id list
+        long[] bits;
+
+        void add(int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+            if (bits != null) {
+                if ((id >>> 6) >= bits.length) bits = Arrays.copyOf(bits, Math.max(bits.length * 2, (id >>> 6) + 1));
+                bits[id >>> 6] |= 1L << id;
+            }
+        }
+    }
+
+    private final TreeMap<String, Integer> termIds = new TreeMap<>();
+    private final List<String> terms = new ArrayList<>();
+    private final List<Postings> postings = new ArrayList<>();
+    private final Map<String, Postings> trigrams = new HashMap<>();
+    private final List<SmartCartApp.Product> docs = new ArrayList<>();
+    private final List<int[]> docTerms = new ArrayList<>();
+    private final Map<String, Integer> docById = new HashMap<>();
+    private final BitSet removed = new BitSet();
+
+    synchronized void add(SmartCartApp.Product p) {
+        // a price change keeps the same terms, so the document is swapped in place rather than tombstoned
+        Integer old = docById.get(p.getId());
+        if (old != null && docs.get(old).getName().equals(p.getName())) {
+            docs.set(old, p);
+            return;
+        }
+        remove(p.getId());
+        int doc = docs.size();
+        docs.add(p);
+        docById.put(p.getId(), doc);
+        List<String> tokens = tokenize(p.getName());
+        int[] ids = new int[tokens.size()];
+        int n = 0;
+        for (String token : tokens) {
+            int t = termId(token);
+            // a term repeated in one name is indexed once
+            boolean seen = false;
+            for (int i = 0; i < n; i++) seen |= ids[i] == t;
+            if (seen) continue;
+            ids[n++] = t;
+            postings.get(t).add(doc);
+        }
+        docTerms.add(n == ids.length ? ids : Arrays.copyOf(ids, n));
+    }
+
+    // removed products stay in the postings as tombstones and are skipped at query time
+    synchronized void remove(String id) {
+        Integer doc = docById.remove(id);
+        if (doc != null) removed.set(doc);
+    }
+
+    synchronized int size() { return docById.size(); }
+
+    synchronized List<SmartCartApp.Product> search(String query, String category, double maxPrice, int limit) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty() || limit <= 0) return List.of();
+        long maxFils = maxPrice >= Long.MAX_VALUE / 100.0 ? Long.MAX_VALUE : (long) Math.floor(maxPrice * 100.0);
+        // enough candidates to fill the page after ranking; a page of results never needs the whole index
+        int budget = Math.max(limit * 8, 64);
+        int last = tokens.size() - 1;
+        List<Hit> hits = new ArrayList<>();
+
+        if (last == 0) {
+            // a single word: walk its terms best match first and stop once the budget is met
+            boolean matched = false;
+            for (int pass = EXACT; pass >= FUZZY && hits.size() < budget; pass--) {
+                if (pass == FUZZY && matched) break;
+                for (int t : matches(tokens.get(0), true, pass)) {
+                    matched = true;
+                    Postings list = postings.get(t);
+                    for (int i = 0; i < list.size && hits.size() < budget; i++) {
+                        int doc = list.ids[i];
+                        if (accept(doc, category, maxFils)) hits.add(new Hit(doc, pass));
+                    }
+                    if (hits.size() >= budget) break;
+                }
+            }
+        } else {
+            // several words: intersect one bitmap per word, smallest first, then rank what survives
+            List<int[]> accepted = new ArrayList<>(tokens.size());
+            List<int[]> weights = new ArrayList<>(tokens.size());
+            long[] sizes = new long[tokens.size()];
+            for (int q = 0; q <= last; q++) {
+                int[][] expanded = expand(tokens.get(q), q == last);
+                if (expanded[0].length == 0) return List.of();
+                accepted.add(expanded[0]);
+                weights.add(expanded[1]);
+                for (int t : expanded[0]) sizes[q] += postings.get(t).size;
+            }
+            Integer[] order = new Integer[tokens.size()];
+            for (int q = 0; q <= last; q++) order[q] = q;
+            Arrays.sort(order, Comparator.comparingLong(q -> sizes[q]));
+            int words = (this.docs.size() + 63) >>> 6;
+            long[] candidates = null, match = new long[words];
+            for (int q : order) {
+                if (candidates != null) Arrays.fill(match, 0L);
+                for (int t : accepted.get(q)) {
+                    Postings list = postings.get(t);
+                    if (list.size >= this.docs.size() / 32) {
+                        long[] bits = bitmap(list);
+                        for (int w = 0; w < bits.length && w < words; w++) match[w] |= bits[w];
+                    } else {
+                        for (int i = 0; i < list.size; i++) match[list.ids[i] >>> 6] |= 1L << list.ids[i];
+                    }
+                }
+                if (candidates == null) {
+                    candidates = match;
+                    match = new long[words];
+                } else {
+                    long any = 0;
+                    for (int w = 0; w < words; w++) any |= candidates[w] &= match[w];
+                    if (any == 0) return List.of();
+                }
+            }
+            for (int w = 0; w < words && hits.size() < budget; w++) {
+                for (long bits = candidates[w]; bits != 0 && hits.size() < budget; bits &= bits - 1) {
+                    int doc = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    if (accept(doc, category, maxFils)) hits.add(new Hit(doc, score(doc, accepted, weights)));
+                }
+            }
+        }
+
+        hits.sort(Comparator.<Hit>comparingInt(h -> -h.score)
+                .thenComparingInt(h -> docTerms.get(h.doc).length)
+                .thenComparingLong(h -> docs.get(h.doc).getPriceFils()));
+        List<SmartCartApp.Product> result = new ArrayList<>(Math.min(limit, hits.size()));
+        for (int i = 0; i < hits.size() && i < limit; i++) result.add(docs.get(hits.get(i).doc));
+        return result;
+    }
+
+    private static final class Hit {
+        final int doc;
+        final int score;
+
+        Hit(int doc, int score) { this.doc = doc; this.score = score; }
+    }
+
+    private long[] bitmap(Postings list) {
+        if (list.bits == null) {
+            long[] bits = new long[(docs.size() + 63) >>> 6];
+            for (int i = 0; i < list.size; i++) bits[list.ids[i] >>> 6] |= 1L << list.ids[i];
+            list.bits = bits;
+        }
+        return list.bits;
+    }
+
+    private boolean accept(int doc, String category, long maxFils) {
+        if (removed.get(doc)) return false;
+        SmartCartApp.Product p = docs.get(doc);
+        return (category == null || category.equals(p.getCategory())) && p.getPriceFils() <= maxFils;
+    }
+
+    // the score sums, for each query word, the best way one of the product's terms matched it
+    private int score(int doc, List<int[]> accepted, List<int[]> weights) {
+        int score = 0;
+        for (int q = 0; q < accepted.size(); q++) {
+            int best = 0;
+            for (int t : docTerms.get(doc)) {
+                int i = Arrays.binarySearch(accepted.get(q), t);
+                if (i >= 0) best = Math.max(best, weights.get(q)[i]);
+            }
+            score += best;
+        }
+        return score;
+    }
+
+    // term ids a query word may stand for, sorted, with the weight of each match
+    private int[][] expand(String token, boolean typing) {
+        TreeMap<Integer, Integer> found = new TreeMap<>();
+        for (int pass = EXACT; pass >= FUZZY; pass--) {
+            if (pass == FUZZY && !found.isEmpty()) break;
+            for (int t : matches(token, typing, pass)) found.putIfAbsent(t, pass);
+        }
+        int[][] result = new int[2][found.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> e : found.entrySet()) {
+            result[0][i] = e.getKey();
+            result[1][i++] = e.getValue();
+        }
+        return result;
+    }
+
+    // terms matching a query word in one way: the word itself, extensions of it while the user is
+    // still typing, or near misses
+    private Iterable<Integer> matches(String token, boolean typing, int kind) {
+        if (kind == EXACT) {
+            Integer t = termIds.get(token);
+            return t == null ? List.of() : List.of(t);
+        }
+        if (kind == PREFIX) {
+            if (!typing) return List.of();
+            Collection<Integer> extensions = termIds.subMap(token, false, token + Character.MAX_VALUE, false).values();
+            return () -> extensions.stream().limit(MAX_EXPANSION).iterator();
+        }
+        if (token.length() < 3) return List.of();
+        int maxEdits = token.length() <= 5 ? 1 : 2;
+        Map<Integer, Integer> shared = new HashMap<>();
+        for (String g : trigramsOf(token)) {
+            Postings list = trigrams.get(g);
+            if (list == null) continue;
+            for (int i = 0; i < list.size; i++) shared.merge(list.ids[i], 1, Integer::sum);
+        }
+        List<Integer> near = new ArrayList<>();
+        for (int t : shared.keySet()) {
+            String term = terms.get(t);
+            if (Math.abs(term.length() - token.length()) <= maxEdits && withinEdits(token, term, maxEdits)) near.add(t);
+        }
+        return near;
+    }
+
+    private int termId(String term) {
+        Integer id = termIds.get(term);
+        if (id != null) return id;
+        int t = terms.size();
+        terms.add(term);
+        postings.add(new Postings());
+        termIds.put(term, t);
+        for (String g : trigramsOf(term)) trigrams.computeIfAbsent(g, k -> new Postings()).add(t);
+        return t;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) start = i;
+            if (!word && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static List<String> trigramsOf(String term) {
+        String padded = "$" + term + "$";
+        List<String> grams = new ArrayList<>(padded.length() - 2);
+        for (int i = 0; i + 3 <= padded.length(); i++) grams.add(padded.substring(i, i + 3));
+        return grams;
+    }
+
+    // edit distance counting a swap of neighbouring letters as one edit; gives up as soon as a whole
+    // row exceeds the limit
+    static boolean withinEdits(String a, String b, int max) {
+        int[] before = new int[b.length() + 1], prev = new int[b.length() + 1], cur = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) prev[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            cur[0] = i;
+            int rowMin = cur[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    cur[j] = Math.min(cur[j], before[j - 2] + 1);
+                }
+                rowMin = Math.min(rowMin, cur[j]);
+            }
+            if (rowMin > max) return false;
+            int[] swap = before; before = prev; prev = cur; cur = swap;
+        }
+        return prev[b.length()] <= max;
+    }
+}
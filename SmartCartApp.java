@@ -1,12 +1,22 @@
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 import javax.swing.*;
 import javax.swing.border.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.text.*;
 
 
@@ -21,11 +31,13 @@ public class SmartCartApp extends JFrame {
         Product(String id, String name, double price) {
             this.id = id; this.name = name; this.price = price;
         }
+        Product() { this(null, null, 0); }
         public String getId() { return id; }
         public String getName() { return name; }
         public double getPrice() { return price; }
+        public long getPriceFils() { return Math.round(getPrice() * 100.0); }
         public abstract String getCategory();
-        @Override public String toString() { return name + " — AED " + price; }
+        @Override public String toString() { return getName() + " — AED " + getPrice(); }
     }
 
     static class Electronics extends Product {
@@ -39,25 +51,88 @@ public class SmartCartApp extends JFrame {
     }
 
     static class Cart {
-        private final LinkedHashMap<String, Product> items = new LinkedHashMap<>();
-        void add(Product p) { items.put(p.getId(), p); }
-        void remove(String id) { items.remove(id); }
-        Collection<Product> getAll() { return items.values(); }
-        double total() {
-            double t = 0; for (Product p : items.values()) t += p.getPrice(); return t;
+        static final class Line {
+            final Product product;
+            final int quantity;
+
+            Line(Product product, int quantity) { this.product = product; this.quantity = quantity; }
+            long subtotalFils() { return product.getPriceFils() * quantity; }
+        }
+
+        private final LinkedHashMap<String, Line> items = new LinkedHashMap<>();
+        private final Map<String, Integer> categoryUnits = new HashMap<>();
+        private long totalFils;
+
+        synchronized void add(Product p) { add(p, 1); }
+        synchronized void add(Product p, int quantity) {
+            if (quantity <= 0) throw new IllegalArgumentException("Quantity must be positive: " + quantity);
+            Line old = items.get(p.getId());
+            if (old != null && old.product != p) old = swap(old, p);
+            items.put(p.getId(), new Line(p, old == null ? quantity : old.quantity + quantity));
+            totalFils += p.getPriceFils() * quantity;
+            categoryUnits.merge(p.getCategory(), quantity, Integer::sum);
+        }
+        // points lines at the given products, so the cart follows price changes
+        synchronized void reprice(Map<String, Product> current) {
+            for (Map.Entry<String, Line> e : items.entrySet()) {
+                Product p = current.get(e.getKey());
+                if (p != null && p != e.getValue().product) e.setValue(swap(e.getValue(), p));
+            }
+        }
+        private Line swap(Line old, Product p) {
+            totalFils += (p.getPriceFils() - old.product.getPriceFils()) * old.quantity;
+            categoryUnits.merge(old.product.getCategory(), -old.quantity, (a, b) -> a + b == 0 ? null : a + b);
+            categoryUnits.merge(p.getCategory(), old.quantity, Integer::sum);
+            return new Line(p, old.quantity);
+        }
+        synchronized Line remove(String id) {
+            Line line = items.remove(id);
+            if (line == null) return null;
+            totalFils -= line.subtotalFils();
+            categoryUnits.merge(line.product.getCategory(), -line.quantity, (a, b) -> a + b == 0 ? null : a + b);
+            return line;
         }
-        boolean isEmpty() { return items.isEmpty(); }
-        void clear() { items.clear(); }
-        int size() { return items.size(); }
+        synchronized Collection<Product> getAll() {
+            java.util.List<Product> all = new ArrayList<>(items.size());
+            for (Line line : items.values()) all.add(line.product);
+            return all;
+        }
+        synchronized java.util.List<Line> lines() { return new ArrayList<>(items.values()); }
+        synchronized long totalFils() { return totalFils; }
+        double total() { return totalFils() / 100.0; }
+        synchronized int units(String category) { return categoryUnits.getOrDefault(category, 0); }
+        synchronized boolean isEmpty() { return items.isEmpty(); }
+        synchronized void clear() { items.clear(); categoryUnits.clear(); totalFils = 0; }
+        synchronized int size() { return items.size(); }
+    }
+
+    static class Session {
+        private final String user;
+        private final Cart cart = new Cart();
+        private double budget = 0.0;
+        private boolean budgetSet = false;
+
+        Session(String user) { this.user = user; }
+        String getUser() { return user; }
+        Cart getCart() { return cart; }
+        synchronized void setBudget(double budget) { this.budget = budget; this.budgetSet = true; }
+        synchronized void clearBudget() { budget = 0.0; budgetSet = false; }
+        synchronized boolean hasBudget() { return budgetSet && budget > 0; }
+        synchronized double getBudget() { return budget; }
     }
 
     static class Reservation {
+        enum Status { ACTIVE, CANCELLED, PURCHASED, EXPIRED }
+
+        long id;
+        String user = ReservationIndex.SHARED;
         Product product;
         LocalDate reservationDate;
         LocalDate plannedPurchaseDate;
         double fee;
-        boolean cancelled = false;
-        boolean purchased = false;
+        Status status = Status.ACTIVE;
+        double refund;
+        LocalDate refundDate;
         LocalDate purchaseDate;
 
         Reservation(Product product, LocalDate reservationDate, LocalDate plannedPurchaseDate, double fee) {
@@ -66,14 +141,28 @@ public class SmartCartApp extends JFrame {
             this.plannedPurchaseDate = plannedPurchaseDate;
             this.fee = fee;
         }
+
+        static double fee(Product p) { return FeeEngine.feeFils(p.getPriceFils()) / 100.0; }
+
+        static double refund(double fee, LocalDate planned, LocalDate today) {
+            long days = ChronoUnit.DAYS.between(today, planned);
+            return FeeEngine.refundFils(Math.round(fee * 100.0), days) / 100.0;
+        }
     }
 
   
-    private final SmartCartManager manager = new SmartCartManager();
+    // opened off the EDT after the first frame; null until dataReady()
+    private SmartCartManager manager;
 
     
     private final CardLayout cards = new CardLayout();
     private final JPanel root = new JPanel(cards);
+    private final Map<String, Supplier<JPanel>> cardFactories = new LinkedHashMap<>();
+    private final Set<String> builtCards = new HashSet<>();
+    private final Deque<String> prewarm = new ArrayDeque<>();
+    private final javax.swing.Timer prewarmTimer = new javax.swing.Timer(PREWARM_DELAY_MS, e -> prewarmNext());
+    private final java.util.List<JComponent> needsData = new ArrayList<>();
+    private final JLabel loadingLabel = new JLabel("Loading catalog…");
 
     
     private final DecimalFormat money = new DecimalFormat("#0.00");
@@ -89,119 +178,231 @@ public class SmartCartApp extends JFrame {
     
     
     private final Color priceColor = new Color(16, 112, 32); 
-    private final String priceColorHex = "#107020"; 
     
     
     private final Font heading = new Font("Arial", Font.BOLD, 22); 
     private final Font normal = new Font("Arial", Font.PLAIN, 15); 
 
-    private static final double COD_FEE = 20.0; 
 
     
-    private double userBudget = 0.0;
-    private boolean budgetSet = false;
     private final JProgressBar budgetBar = new JProgressBar(0, 100);
     private final JLabel budgetLabel = new JLabel("Budget not set");
 
     
     private String currentUser = null;
+    private final Session guest = new Session("");
+    private static final int SEARCH_DELAY_MS = 150;
+    private static final int SEARCH_RESULTS = 200;
+    private static final int RESERVATION_PAGE = 100;
+    private static final int PREWARM_DELAY_MS = 120;
+    // cards a user usually opens next, built during idle time so the first click does not pay for them
+    private static final Map<String, java.util.List<String>> LIKELY_NEXT = Map.of(
+            "welcome", java.util.List.of("login", "signup"),
+            "login", java.util.List.of("home"),
+            "home", java.util.List.of("electronics", "clothing", "cart"),
+            "electronics", java.util.List.of("cart"),
+            "clothing", java.util.List.of("cart"),
+            "cart", java.util.List.of("checkout"));
+    // -Dsmartcart.startup=log prints startup milestones, =exit also quits once interactive (for timing runs)
+    private static final String STARTUP_MODE = System.getProperty("smartcart.startup", "");
+    // EDT events slower than this count as stalls and are reported with the EDT's stack
+    private static final int EDT_STALL_MS = Integer.getInteger("smartcart.edtStallMs", 100);
+    private boolean painted;
+    private final java.util.concurrent.ExecutorService searchWorker =
+            Executors.newSingleThreadExecutor(Threads.daemon("smartcart-search"));
+    // reservation changes wait for the log to reach disk, so they run here, one at a time, off the EDT
+    private final java.util.concurrent.ExecutorService reservationWorker =
+            Executors.newSingleThreadExecutor(Threads.daemon("smartcart-reservations"));
+    private String checkoutKey = UUID.randomUUID().toString();
 
     public SmartCartApp() {
         setTitle("SmartCart — Modern Demo");
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setSize(920, 640);
         setLocationRelativeTo(null);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                if ("dump".equals(System.getProperty("smartcart.metrics"))) System.err.print(Metrics.get().dump());
+                if (manager == null) return;
+                try {
+                    manager.close();
+                } catch (IOException ex) {
+                    System.err.println("SmartCart: could not save data: " + ex.getMessage());
+                }
+            }
+        });
         initUI();
         setVisible(true);
+        loadData();
     }
 
     private void initUI() {
         
         root.setBackground(Color.WHITE);
-        root.add(buildWelcomePanel(), "welcome");
-        root.add(buildSignupPanel(), "signup");
-        root.add(buildLoginPanel(), "login");
-        root.add(buildHomePanel(), "home");
-        root.add(buildElectronicsPanel(), "electronics");
-        root.add(buildClothingPanel(), "clothing");
-        root.add(buildCartPanel(), "cart");
-        root.add(buildCheckoutPanel(), "checkout");
-        root.add(buildReservationsPanel(), "reservations");
+        cardFactories.put("welcome", this::buildWelcomePanel);
+        cardFactories.put("signup", this::buildSignupPanel);
+        cardFactories.put("login", this::buildLoginPanel);
+        cardFactories.put("home", this::buildHomePanel);
+        cardFactories.put("electronics", this::buildElectronicsPanel);
+        cardFactories.put("clothing", this::buildClothingPanel);
+        cardFactories.put("cart", this::buildCartPanel);
+        cardFactories.put("checkout", this::buildCheckoutPanel);
+        cardFactories.put("reservations", this::buildReservationsPanel);
+        prewarmTimer.setRepeats(false);
 
         add(root);
-        cards.show(root, "welcome");
+        showCard("welcome");
+    }
+
+    // builds a card the first time it is shown, then queues the cards likely to follow it
+    private void showCard(String name) {
+        buildCard(name);
+        cards.show(root, name);
+        if (manager == null) return;
+        for (String next : LIKELY_NEXT.getOrDefault(name, java.util.List.of())) {
+            if (!builtCards.contains(next) && !prewarm.contains(next)) prewarm.add(next);
+        }
+        if (!prewarm.isEmpty()) prewarmTimer.restart();
+    }
+
+    private void buildCard(String name) {
+        if (builtCards.add(name)) root.add(cardFactories.get(name).get(), name);
+    }
+
+    // one card per timer tick keeps each EDT slice short, so input stays responsive while warming
+    private void prewarmNext() {
+        String name = prewarm.poll();
+        if (name == null) return;
+        buildCard(name);
+        if (!prewarm.isEmpty()) prewarmTimer.restart();
+    }
+
+    private void loadData() {
+        Thread classes = new Thread(SmartCartApp::preloadClasses, "smartcart-preload");
+        classes.setDaemon(true);
+        classes.setPriority(Thread.MIN_PRIORITY);
+        classes.start();
+        new SwingWorker<SmartCartManager, Void>() {
+            @Override protected SmartCartManager doInBackground() {
+                return SmartCartManager.open(Paths.get(System.getProperty("smartcart.data", "smartcart-data")));
+            }
+            @Override protected void done() {
+                try {
+                    manager = get();
+                } catch (InterruptedException | java.util.concurrent.ExecutionException ex) {
+                    throw new IllegalStateException("Could not open SmartCart data", ex);
+                }
+                dataReady();
+            }
+        }.execute();
+    }
+
+    private void dataReady() {
+        for (JComponent c : needsData) c.setEnabled(true);
+        loadingLabel.setVisible(false);
+        Metrics.get().registerMBean();
+        startupMilestone("interactive");
+        if (STARTUP_MODE.equals("exit")) {
+            dispatchEvent(new WindowEvent(this, WindowEvent.WINDOW_CLOSING));
+            System.exit(0);
+        }
+        showCard("welcome");
+    }
+
+    // loads (without initializing) the classes later cards need, so class loading overlaps the log replay
+    private static void preloadClasses() {
+        String[] names = { "javax.swing.JTable", "javax.swing.table.JTableHeader", "javax.swing.JComboBox",
+                "javax.swing.plaf.basic.BasicComboBoxUI", "javax.swing.plaf.basic.BasicTableUI",
+                "javax.swing.JPasswordField", "javax.swing.JProgressBar", "javax.swing.plaf.basic.BasicProgressBarUI",
+                "javax.swing.JScrollPane", "javax.swing.plaf.basic.BasicListUI", "javax.swing.JRadioButton",
+                "SmartCartApp$ReservationTableModel", "SmartCartApp$SnapshotListModel", "DebouncedSearch",
+                "BudgetOptimizer", "OrderService", "Validators" };
+        ClassLoader loader = SmartCartApp.class.getClassLoader();
+        for (String name : names) {
+            try {
+                Class.forName(name, false, loader);
+            } catch (ClassNotFoundException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (!painted) {
+            painted = true;
+            startupMilestone("first paint");
+        }
+    }
+
+    private static void startupMilestone(String what) {
+        if (STARTUP_MODE.isEmpty()) return;
+        long ms = ProcessHandle.current().info().startInstant()
+                .map(start -> java.time.Duration.between(start, java.time.Instant.now()).toMillis()).orElse(-1L);
+        System.err.println("SmartCart startup: " + what + " after " + ms + " ms");
     }
     
     
-    private String colorizePrices(String text, String priceColorHex) {
-      
-        String delimiter = " — ";
-        String currency = "AED ";
-        String fullPattern = delimiter + currency;
+    static final class RowText {
+        private static final String DELIMITER = " — ";
+        private static final String CURRENCY = "AED ";
+        private static final String FEE = "Fee: ";
+
+        final String head;
+        final String price;
+        final String tail;
+        final String fee;
+
+        RowText(String head, String price, String tail, String fee) {
+            this.head = head; this.price = price; this.tail = tail; this.fee = fee;
+        }
 
-        
-        if (text.contains(fullPattern)) {
-           
-            int sepIndex = text.indexOf(fullPattern);
-            
-           
-            String namePart = text.substring(0, sepIndex + delimiter.length()); 
-           
-            String priceAndSuffix = text.substring(sepIndex + delimiter.length()); 
-            
-            
-            int pipeIndex = priceAndSuffix.indexOf('|');
-            
-            if (pipeIndex == -1) {
-                
-                return "<html>" + namePart + "<font color=\"" + priceColorHex + "\">" + priceAndSuffix + "</font></html>";
-            } else {
-                
-                String priceVal = priceAndSuffix.substring(0, pipeIndex); 
-                
-                String suffix = priceAndSuffix.substring(pipeIndex); 
-                
-                String middleColored = namePart + "<font color=\"" + priceColorHex + "\">" + priceVal + "</font>" + suffix;
-                
-                
-                String feePattern = "Fee: " + currency;
-                int feeIndex = middleColored.lastIndexOf(feePattern);
-                if (feeIndex != -1) {
-                    
-                    String feePrefix = middleColored.substring(0, feeIndex + feePattern.length()); 
-                    
-                    String feeValue = middleColored.substring(feeIndex + feePattern.length()); 
-                    
-                   
-                    String feeBlockStart = "Fee: ";
-                    int newFeeIndex = middleColored.lastIndexOf(feeBlockStart);
-                    if (newFeeIndex != -1) {
-                        String prefixBeforeFee = middleColored.substring(0, newFeeIndex + feeBlockStart.length()); // "... | Fee: "
-                        String feeValueWithCurrency = middleColored.substring(newFeeIndex + feeBlockStart.length()); // "AED 5.00"
-
-                        return "<html>" + prefixBeforeFee + "<font color=\"" + priceColorHex + "\">" + feeValueWithCurrency + "</font></html>";
-                    }
-                }
-                
-                
-                return "<html>" + middleColored + "</html>";
+        static RowText of(Object value) {
+            if (value instanceof Product) {
+                Product p = (Product) value;
+                return new RowText(p.getName() + DELIMITER, CURRENCY + p.getPrice(), "", "");
             }
+            return parse(String.valueOf(value));
+        }
+
+        static RowText parse(String text) {
+            int sep = text.indexOf(DELIMITER + CURRENCY);
+            if (sep == -1) return new RowText(text, "", "", "");
+            String head = text.substring(0, sep + DELIMITER.length());
+            String priceAndSuffix = text.substring(sep + DELIMITER.length());
+            int pipe = priceAndSuffix.indexOf('|');
+            if (pipe == -1) return new RowText(head, priceAndSuffix, "", "");
+            String price = priceAndSuffix.substring(0, pipe);
+            String suffix = priceAndSuffix.substring(pipe);
+            int fee = suffix.lastIndexOf(FEE + CURRENCY);
+            if (fee == -1) return new RowText(head, price, suffix, "");
+            return new RowText(head, price, suffix.substring(0, fee + FEE.length()), suffix.substring(fee + FEE.length()));
         }
-        
-        
-        return "<html>" + text + "</html>";
     }
 
     
     private class ZebraListRenderer extends DefaultListCellRenderer {
+        private static final int CACHE_SIZE = 2048;
+
+        private final Map<Object, RowText> rows = new LinkedHashMap<Object, RowText>(CACHE_SIZE, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Object, RowText> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+        private final Border rowBorder = BorderFactory.createEmptyBorder(6, 12, 6, 12);
+        private final Map<?, ?> textHints =
+                (Map<?, ?>) Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+        private RowText row;
+
         @Override
         public Component getListCellRendererComponent(JList<?> list, Object value, int index,
                                                       boolean isSelected, boolean cellHasFocus) {
             
-            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            super.getListCellRendererComponent(list, "", index, isSelected, cellHasFocus);
             
             
-            setText(colorizePrices(value.toString(), priceColorHex));
+            row = rows.computeIfAbsent(value, RowText::of);
 
             setFont(normal);
             
@@ -223,13 +424,161 @@ public class SmartCartApp extends JFrame {
             }
             
             
-            setBorder(BorderFactory.createEmptyBorder(6, 12, 6, 12));
+            setBorder(rowBorder);
             
             return this;
         }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Graphics2D g2 = (Graphics2D) g;
+            if (textHints != null) g2.addRenderingHints(textHints);
+            g2.setFont(getFont());
+            FontMetrics fm = g2.getFontMetrics();
+            Insets in = getInsets();
+            int y = in.top + (getHeight() - in.top - in.bottom - fm.getHeight()) / 2 + fm.getAscent();
+            int x = in.left;
+            x = drawSegment(g2, fm, row.head, x, y, getForeground());
+            x = drawSegment(g2, fm, row.price, x, y, priceColor);
+            x = drawSegment(g2, fm, row.tail, x, y, getForeground());
+            drawSegment(g2, fm, row.fee, x, y, priceColor);
+        }
+
+        private int drawSegment(Graphics2D g2, FontMetrics fm, String text, int x, int y, Color color) {
+            if (text.isEmpty()) return x;
+            g2.setColor(color);
+            g2.drawString(text, x, y);
+            return x + fm.stringWidth(text);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class SnapshotListModel<T> extends AbstractListModel<T> {
+        private java.util.List<T> items = java.util.List.of();
+        private int generation;
+
+        @Override public int getSize() { return items.size(); }
+        @Override public T getElementAt(int index) { return items.get(index); }
+
+        void publish(java.util.List<T> snapshot) {
+            int changed = Math.max(items.size(), snapshot.size());
+            items = snapshot;
+            if (changed > 0) fireContentsChanged(this, 0, changed - 1);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class ReservationTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = { "#", "Status", "Product", "Price (AED)", "Reserved", "Planned", "Fee (AED)" };
+        private final DecimalFormat money;
+        private java.util.List<Reservation> page = java.util.List.of();
+        private int offset;
+
+        ReservationTableModel(DecimalFormat money) { this.money = money; }
+
+        void publish(java.util.List<Reservation> page, int offset) {
+            this.page = page;
+            this.offset = offset;
+            fireTableDataChanged();
+        }
+
+        Reservation get(int row) { return page.get(row); }
+
+        @Override public int getRowCount() { return page.size(); }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int column) { return COLUMNS[column]; }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            Reservation r = page.get(row);
+            switch (column) {
+                case 0: return Integer.toString(offset + row + 1);
+                case 1: return r.status.name();
+                case 2: return r.product.getName();
+                case 3: return money.format(r.product.getPrice());
+                case 4: return r.reservationDate.toString();
+                case 5: return r.plannedPurchaseDate.toString();
+                default: return money.format(r.fee);
+            }
+        }
+    }
+
+    
+    // the histogram times from the kickoff until the result is on screen; superseded loads are not counted
+    private <T> void refreshAsync(JList<T> list, SnapshotListModel<T> model, Metrics.Histogram time,
+                                  java.util.concurrent.Callable<java.util.List<T>> loader) {
+        long start = System.nanoTime();
+        int gen = ++model.generation;
+        new SwingWorker<java.util.List<T>, Void>() {
+            @Override protected java.util.List<T> doInBackground() throws Exception { return loader.call(); }
+            @Override protected void done() {
+                if (gen != model.generation) return;
+                try {
+                    java.util.List<T> snapshot = get();
+                    list.clearSelection();
+                    model.publish(snapshot);
+                    time.since(start);
+                } catch (InterruptedException | java.util.concurrent.ExecutionException ex) {
+                    throw new IllegalStateException("List refresh failed", ex);
+                }
+            }
+        }.execute();
+    }
+
+    
+    private DebouncedSearch<Product> productSearch(String category, JList<Product> list, SnapshotListModel<Product> model) {
+        Metrics.Histogram time = Metrics.get().histogram("panel." + category.toLowerCase(Locale.ROOT) + ".refresh");
+        return new DebouncedSearch<>(SEARCH_DELAY_MS, searchWorker, time, text -> {
+            Session s = session();
+            double budget = s.hasBudget() ? s.getBudget() : Double.MAX_VALUE;
+            return () -> text.isEmpty()
+                    ? manager.getProducts(category, budget)
+                    : manager.search(text, category, budget, SEARCH_RESULTS);
+        }, snapshot -> {
+            list.clearSelection();
+            model.publish(snapshot);
+        });
+    }
+
+    private JPanel searchHeader(JLabel heading, DebouncedSearch<Product> search) {
+        JTextField field = new JTextField(18);
+        field.setFont(normal);
+        field.setToolTipText("Search product names");
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { search.textChanged(field.getText()); }
+            @Override public void removeUpdate(DocumentEvent e) { search.textChanged(field.getText()); }
+            @Override public void changedUpdate(DocumentEvent e) { }
+        });
+        JLabel label = new JLabel("Search:");
+        label.setFont(normal);
+        JPanel box = new JPanel(new FlowLayout(FlowLayout.RIGHT, 6, 12));
+        box.setOpaque(false);
+        box.add(label);
+        box.add(field);
+        JPanel header = new JPanel(new BorderLayout());
+        header.setOpaque(false);
+        header.add(heading, BorderLayout.WEST);
+        header.add(box, BorderLayout.EAST);
+        return header;
+    }
+
+    
+    private void virtualize(JList<?> list) {
+        list.setFixedCellHeight(list.getFontMetrics(normal).getHeight() + 12);
+        list.setFixedCellWidth(1);
     }
 
    
+    // runs a manager call on the reservation worker with the button disabled, then reports on the EDT
+    private <T> void inBackground(JButton button, Supplier<T> task, BiConsumer<T, Throwable> done) {
+        button.setEnabled(false);
+        CompletableFuture.supplyAsync(task, reservationWorker).whenComplete((value, ex) -> SwingUtilities.invokeLater(() -> {
+            button.setEnabled(true);
+            done.accept(value, ex instanceof CompletionException ? ex.getCause() : ex);
+        }));
+    }
+
     private JButton makeButton(String text) {
         JButton b = new JButton(text);
         
@@ -376,13 +725,24 @@ public class SmartCartApp extends JFrame {
         btnRow.setOpaque(false);
         JButton signup = makeButton("Sign Up");
         JButton login = makeButton("Log In");
-        signup.addActionListener(e -> cards.show(root, "signup"));
-        login.addActionListener(e -> cards.show(root, "login"));
+        signup.addActionListener(e -> showCard("signup"));
+        login.addActionListener(e -> showCard("login"));
+        signup.setEnabled(manager != null);
+        login.setEnabled(manager != null);
+        needsData.add(signup);
+        needsData.add(login);
         btnRow.add(signup);
         btnRow.add(Box.createRigidArea(new Dimension(8,0)));
         btnRow.add(login);
 
+        loadingLabel.setFont(normal);
+        loadingLabel.setForeground(Color.DARK_GRAY);
+        loadingLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
+        loadingLabel.setVisible(manager == null);
+
         inner.add(btnRow);
+        inner.add(Box.createRigidArea(new Dimension(0,12)));
+        inner.add(loadingLabel);
         panel.add(inner, BorderLayout.CENTER);
         return panel;
     }
@@ -435,19 +795,30 @@ public class SmartCartApp extends JFrame {
             }
 
             
-            if (!u.matches("^[A-Za-z][A-Za-z0-9_]{2,11}$")) {
+            if (!Validators.username(u)) {
                 JOptionPane.showMessageDialog(this, "Username invalid. Must start with a letter, 3-12 chars, letters/digits/underscore.");
                 return;
             }
 
-            if (manager.getUsernames().contains(u)) {
+            if (manager.userExists(u)) {
                 JOptionPane.showMessageDialog(this, "Username exists.");
                 return;
             }
-            manager.getUsernames().add(u); manager.getPasswords().add(p);
-            JOptionPane.showMessageDialog(this, "Signup successful — please log in.");
-            userF.setText(""); passF.setText("");
-            cards.show(root, "login");
+            register.setEnabled(false);
+            manager.register(u, p).whenComplete((ok, ex) -> SwingUtilities.invokeLater(() -> {
+                register.setEnabled(true);
+                if (ex != null) {
+                    JOptionPane.showMessageDialog(this, "Signup is busy — please try again.");
+                    return;
+                }
+                if (!ok) {
+                    JOptionPane.showMessageDialog(this, "Username exists.");
+                    return;
+                }
+                JOptionPane.showMessageDialog(this, "Signup successful — please log in.");
+                userF.setText(""); passF.setText("");
+                showCard("login");
+            }));
         });
 
         JButton back = new JButton("Back"); back.setFont(normal);
@@ -455,7 +826,7 @@ public class SmartCartApp extends JFrame {
         back.setBackground(buttonColor);
         back.setForeground(Color.WHITE);
         back.setRolloverEnabled(false);
-        back.addActionListener(e -> cards.show(root, "welcome"));
+        back.addActionListener(e -> showCard("welcome"));
 
         JPanel btnRow = new JPanel(); btnRow.setOpaque(false);
         btnRow.add(register); btnRow.add(Box.createRigidArea(new Dimension(8,0))); btnRow.add(back);
@@ -504,18 +875,19 @@ public class SmartCartApp extends JFrame {
                 JOptionPane.showMessageDialog(this,"Fill both fields.");
                 return;
             }
-            if (manager.getUsernames().contains(u)) {
-                int idx = manager.getUsernames().indexOf(u);
-                if (manager.getPasswords().get(idx).equals(p)) {
+            login.setEnabled(false);
+            manager.login(u, p).whenComplete((ok, ex) -> SwingUtilities.invokeLater(() -> {
+                login.setEnabled(true);
+                if (ex == null && ok) {
                     userF.setText(""); passF.setText("");
                     currentUser = u;
                     
                     askForBudget();
-                    cards.show(root, "home");
+                    showCard("home");
                     return;
                 }
-            }
-            JOptionPane.showMessageDialog(this, "Invalid credentials.");
+                JOptionPane.showMessageDialog(this, ex != null ? "Login is busy — please try again." : "Invalid credentials.");
+            }));
         });
 
         JButton back = new JButton("Back"); back.setFont(normal);
@@ -523,7 +895,7 @@ public class SmartCartApp extends JFrame {
         back.setBackground(buttonColor);
         back.setForeground(Color.WHITE);
         back.setRolloverEnabled(false);
-        back.addActionListener(e -> cards.show(root, "welcome"));
+        back.addActionListener(e -> showCard("welcome"));
         JPanel btnRow = new JPanel(); btnRow.setOpaque(false);
         btnRow.add(login); btnRow.add(Box.createRigidArea(new Dimension(8,0))); btnRow.add(back);
         card.add(btnRow);
@@ -533,12 +905,16 @@ public class SmartCartApp extends JFrame {
     }
 
     
+    private Session session() {
+        return currentUser == null ? guest : manager.session(currentUser);
+    }
+
+    
     private void askForBudget() {
         String s = JOptionPane.showInputDialog(this,
                 "Enter your budget limit (AED):", "Set Budget", JOptionPane.PLAIN_MESSAGE);
         if (s == null) {
-            budgetSet = false;
-            userBudget = 0.0;
+            session().clearBudget();
             budgetLabel.setText("Budget not set");
             budgetBar.setValue(0);
             return;
@@ -547,32 +923,79 @@ public class SmartCartApp extends JFrame {
             double b = Double.parseDouble(s.trim());
             if (b <= 0) {
                 JOptionPane.showMessageDialog(this, "Budget must be a positive number.");
-                budgetSet = false;
-                userBudget = 0.0;
+                session().clearBudget();
                 budgetLabel.setText("Budget not set");
                 budgetBar.setValue(0);
                 return;
             }
-            userBudget = b;
-            budgetSet = true;
+            session().setBudget(b);
             updateBudgetUI();
-            JOptionPane.showMessageDialog(this, "Budget set to AED " + money.format(userBudget));
+            JOptionPane.showMessageDialog(this, "Budget set to AED " + money.format(b));
         } catch (NumberFormatException ex) {
             JOptionPane.showMessageDialog(this, "Invalid number. Budget not set.");
-            budgetSet = false;
-            userBudget = 0.0;
+            session().clearBudget();
             budgetLabel.setText("Budget not set");
             budgetBar.setValue(0);
         }
     }
 
+    // suggests the products from one category that use up as much of the remaining budget as possible
+    private void fillBudget(String category) {
+        Session s = session();
+        if (!s.hasBudget()) { JOptionPane.showMessageDialog(this, "Set a budget first."); return; }
+        long room = Math.round(s.getBudget() * 100.0) - s.getCart().totalFils();
+        if (room <= 0) { JOptionPane.showMessageDialog(this, "Your cart already uses the whole budget."); return; }
+        Set<String> inCart = new HashSet<>();
+        for (Cart.Line line : s.getCart().lines()) inCart.add(line.product.getId());
+        new SwingWorker<BudgetOptimizer.Plan, Void>() {
+            @Override protected BudgetOptimizer.Plan doInBackground() {
+                java.util.List<Product> candidates = new ArrayList<>();
+                for (Product p : manager.getProducts(category, room / 100.0)) {
+                    if (!inCart.contains(p.getId()) && manager.availableStock(p.getId()) > 0) candidates.add(p);
+                }
+                return BudgetOptimizer.fill(candidates, room);
+            }
+            @Override protected void done() {
+                BudgetOptimizer.Plan plan;
+                try {
+                    plan = get();
+                } catch (InterruptedException | java.util.concurrent.ExecutionException ex) {
+                    throw new IllegalStateException("Budget fill failed", ex);
+                }
+                if (plan.items.isEmpty()) {
+                    JOptionPane.showMessageDialog(SmartCartApp.this,
+                            "Nothing in " + category + " fits the remaining AED " + money.format(room / 100.0) + ".");
+                    return;
+                }
+                StringBuilder sb = new StringBuilder("Suggested items:\n\n");
+                int shown = Math.min(plan.items.size(), 20);
+                for (Product p : plan.items.subList(0, shown)) {
+                    sb.append(p.getName()).append(" — AED ").append(money.format(p.getPrice())).append("\n");
+                }
+                if (shown < plan.items.size()) sb.append("… and ").append(plan.items.size() - shown).append(" more\n");
+                sb.append("\nTotal: AED ").append(money.format(plan.totalFils / 100.0))
+                  .append(" of AED ").append(money.format(room / 100.0)).append(" remaining\n\nAdd them to your cart?");
+                int ok = JOptionPane.showConfirmDialog(SmartCartApp.this, sb.toString(), "Fill Budget", JOptionPane.YES_NO_OPTION);
+                if (ok != JOptionPane.YES_OPTION) return;
+                int missed = 0;
+                for (Product p : plan.items) if (!manager.addToCart(currentUser, p)) missed++;
+                updateBudgetUI();
+                JOptionPane.showMessageDialog(SmartCartApp.this, missed == 0
+                        ? plan.items.size() + " items added to cart."
+                        : (plan.items.size() - missed) + " items added; " + missed + " sold out meanwhile.");
+            }
+        }.execute();
+    }
+
     private void updateBudgetUI() {
-        if (!budgetSet || userBudget <= 0) {
+        Session s = session();
+        if (!s.hasBudget()) {
             budgetLabel.setText("Budget not set");
             budgetBar.setValue(0);
             return;
         }
-        double total = manager.getCart().total();
+        double userBudget = s.getBudget();
+        double total = s.getCart().total();
         double percent = Math.min(100.0, (total / userBudget) * 100.0);
         budgetBar.setValue((int) Math.round(percent));
         budgetBar.setStringPainted(true);
@@ -623,18 +1046,17 @@ public class SmartCartApp extends JFrame {
         
         JButton reservationsBtn = makeButton("Reservations");
 
-        electronicsBtn.addActionListener(e -> cards.show(root, "electronics"));
-        clothingBtn.addActionListener(e -> cards.show(root, "clothing"));
-        viewCartBtn.addActionListener(e -> cards.show(root, "cart"));
-        checkoutBtn.addActionListener(e -> cards.show(root, "checkout"));
-        reservationsBtn.addActionListener(e -> cards.show(root, "reservations"));
+        electronicsBtn.addActionListener(e -> showCard("electronics"));
+        clothingBtn.addActionListener(e -> showCard("clothing"));
+        viewCartBtn.addActionListener(e -> showCard("cart"));
+        checkoutBtn.addActionListener(e -> showCard("checkout"));
+        reservationsBtn.addActionListener(e -> showCard("reservations"));
         logoutBtn.addActionListener(e -> {
            
-            manager.getCart().clear();
-            budgetSet = false; userBudget = 0.0;
+            manager.endSession(currentUser);
             currentUser = null;
             updateBudgetUI();
-            cards.show(root, "welcome");
+            showCard("welcome");
         });
         setBudgetBtn.addActionListener(e -> askForBudget());
 
@@ -658,24 +1080,17 @@ public class SmartCartApp extends JFrame {
         panel.setBackground(softBlue);
         JLabel h = new JLabel("Electronics");
         h.setFont(heading); h.setForeground(brandBlue); h.setBorder(new EmptyBorder(12,12,12,12));
-        panel.add(h, BorderLayout.NORTH);
 
-        DefaultListModel<Product> model = new DefaultListModel<>();
+        SnapshotListModel<Product> model = new SnapshotListModel<>();
         JList<Product> list = new JList<>(model);
         
         list.setCellRenderer(new ZebraListRenderer());
         list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        virtualize(list);
 
-        
-        Runnable refresh = () -> {
-            model.clear();
-            for (Product p : manager.getInventory()) {
-                if ("Electronics".equals(p.getCategory())) {
-                    if (!budgetSet || p.getPrice() <= userBudget) model.addElement(p);
-                }
-            }
-        };
-        refresh.run();
+        DebouncedSearch<Product> search = productSearch("Electronics", list, model);
+        panel.add(searchHeader(h, search), BorderLayout.NORTH);
+        Runnable refresh = search::runNow;
 
         panel.add(new JScrollPane(list), BorderLayout.CENTER);
 
@@ -688,24 +1103,30 @@ public class SmartCartApp extends JFrame {
         back.setRolloverEnabled(false);
         
         JButton viewCart = makeButton("View Cart");
+        JButton fill = makeButton("Fill Budget");
+        fill.addActionListener(e -> fillBudget("Electronics"));
 
         add.addActionListener(e -> {
             Product sel = list.getSelectedValue();
             if (sel==null) { JOptionPane.showMessageDialog(this,"Select a product first."); return; }
 
             
-            double current = manager.getCart().total();
-            double wouldBe = current + sel.getPrice();
-            if (budgetSet && wouldBe > userBudget) {
+            Session s = session();
+            long current = s.getCart().totalFils();
+            long wouldBe = current + sel.getPriceFils();
+            if (s.hasBudget() && wouldBe > Math.round(s.getBudget() * 100.0)) {
                 JOptionPane.showMessageDialog(this,
                         "Cannot add — exceeds your budget.\n" +
                         "Item price: AED " + money.format(sel.getPrice()) +
-                        "\nCurrent total: AED " + money.format(current) +
-                        "\nBudget: AED " + money.format(userBudget));
+                        "\nCurrent total: AED " + money.format(current / 100.0) +
+                        "\nBudget: AED " + money.format(s.getBudget()));
                 return;
             }
 
-            manager.getCart().add(sel);
+            if (!manager.addToCart(currentUser, sel)) {
+                JOptionPane.showMessageDialog(this, "Sorry, " + sel.getName() + " is out of stock.");
+                return;
+            }
             updateBudgetUI();
             JOptionPane.showMessageDialog(this, sel.getName() + " added to cart.");
         });
@@ -717,30 +1138,42 @@ public class SmartCartApp extends JFrame {
             String s = JOptionPane.showInputDialog(this,
                     "Enter planned purchase date (YYYY-MM-DD):", LocalDate.now().plusDays(7).toString());
             if (s==null) return;
+            LocalDate planned;
             try {
-                LocalDate planned = LocalDate.parse(s.trim());
-                if (planned.isBefore(LocalDate.now())) {
-                    JOptionPane.showMessageDialog(this,"Planned date must be today or in future.");
-                    return;
-                }
-                
-                double fee = Math.max(5.0, Math.round(sel.getPrice() * 0.10 * 100.0) / 100.0);
-                Reservation r = new Reservation(sel, LocalDate.now(), planned, fee);
-                manager.addReservation(r);
-                JOptionPane.showMessageDialog(this, "Reserved " + sel.getName() + ". Reservation fee: AED " + money.format(fee));
-            } catch (Exception ex) {
+                planned = LocalDate.parse(s.trim());
+            } catch (DateTimeParseException ex) {
                 JOptionPane.showMessageDialog(this, "Invalid date format. Use YYYY-MM-DD.");
+                return;
             }
+            if (planned.isBefore(LocalDate.now())) {
+                JOptionPane.showMessageDialog(this,"Planned date must be today or in future.");
+                return;
+            }
+
+            double fee = Reservation.fee(sel);
+            Reservation r = new Reservation(sel, LocalDate.now(), planned, fee);
+            String user = currentUser;
+            inBackground(reserve, () -> manager.addReservation(user, r), (ok, ex) -> {
+                if (ex != null) {
+                    JOptionPane.showMessageDialog(this, "Could not reserve " + sel.getName() + ": " + ex.getMessage());
+                } else if (!ok) {
+                    JOptionPane.showMessageDialog(this, "Sorry, " + sel.getName() + " is out of stock.");
+                } else {
+                    JOptionPane.showMessageDialog(this, "Reserved " + sel.getName() + ". Reservation fee: AED " + money.format(fee));
+                }
+            });
         });
 
-        back.addActionListener(e -> cards.show(root, "home"));
-        viewCart.addActionListener(e -> cards.show(root, "cart"));
+        back.addActionListener(e -> showCard("home"));
+        viewCart.addActionListener(e -> showCard("cart"));
 
         JPanel btns = new JPanel(); btns.setOpaque(false);
         btns.add(add);
         btns.add(Box.createRigidArea(new Dimension(8,0)));
         btns.add(reserve);
         btns.add(Box.createRigidArea(new Dimension(8,0)));
+        btns.add(fill);
+        btns.add(Box.createRigidArea(new Dimension(8,0)));
         btns.add(viewCart);
         btns.add(Box.createRigidArea(new Dimension(8,0)));
         btns.add(back);
@@ -762,24 +1195,17 @@ public class SmartCartApp extends JFrame {
         panel.setBackground(softBlue);
         JLabel h = new JLabel("Clothing");
         h.setFont(heading); h.setForeground(brandBlue); h.setBorder(new EmptyBorder(12,12,12,12));
-        panel.add(h, BorderLayout.NORTH);
 
-        DefaultListModel<Product> model = new DefaultListModel<>();
+        SnapshotListModel<Product> model = new SnapshotListModel<>();
         JList<Product> list = new JList<>(model);
         
         list.setCellRenderer(new ZebraListRenderer());
         list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        virtualize(list);
 
-        
-        Runnable refresh = () -> {
-            model.clear();
-            for (Product p : manager.getInventory()) {
-                if ("Clothing".equals(p.getCategory())) {
-                    if (!budgetSet || p.getPrice() <= userBudget) model.addElement(p);
-                }
-            }
-        };
-        refresh.run();
+        DebouncedSearch<Product> search = productSearch("Clothing", list, model);
+        panel.add(searchHeader(h, search), BorderLayout.NORTH);
+        Runnable refresh = search::runNow;
 
         panel.add(new JScrollPane(list), BorderLayout.CENTER);
 
@@ -792,24 +1218,30 @@ public class SmartCartApp extends JFrame {
         back.setRolloverEnabled(false);
         
         JButton viewCart = makeButton("View Cart");
+        JButton fill = makeButton("Fill Budget");
+        fill.addActionListener(e -> fillBudget("Clothing"));
 
         add.addActionListener(e -> {
             Product sel = list.getSelectedValue();
             if (sel==null) { JOptionPane.showMessageDialog(this,"Select a product first."); return; }
 
             
-            double current = manager.getCart().total();
-            double wouldBe = current + sel.getPrice();
-            if (budgetSet && wouldBe > userBudget) {
+            Session s = session();
+            long current = s.getCart().totalFils();
+            long wouldBe = current + sel.getPriceFils();
+            if (s.hasBudget() && wouldBe > Math.round(s.getBudget() * 100.0)) {
                 JOptionPane.showMessageDialog(this,
                         "Cannot add — exceeds your budget.\n" +
                         "Item price: AED " + money.format(sel.getPrice()) +
-                        "\nCurrent total: AED " + money.format(current) +
-                        "\nBudget: AED " + money.format(userBudget));
+                        "\nCurrent total: AED " + money.format(current / 100.0) +
+                        "\nBudget: AED " + money.format(s.getBudget()));
                 return;
             }
 
-            manager.getCart().add(sel);
+            if (!manager.addToCart(currentUser, sel)) {
+                JOptionPane.showMessageDialog(this, "Sorry, " + sel.getName() + " is out of stock.");
+                return;
+            }
             updateBudgetUI();
             JOptionPane.showMessageDialog(this, sel.getName() + " added to cart.");
         });
@@ -821,30 +1253,42 @@ public class SmartCartApp extends JFrame {
             String s = JOptionPane.showInputDialog(this,
                     "Enter planned purchase date (YYYY-MM-DD):", LocalDate.now().plusDays(7).toString());
             if (s==null) return;
+            LocalDate planned;
             try {
-                LocalDate planned = LocalDate.parse(s.trim());
-                if (planned.isBefore(LocalDate.now())) {
-                    JOptionPane.showMessageDialog(this,"Planned date must be today or in future.");
-                    return;
-                }
-                
-                double fee = Math.max(5.0, Math.round(sel.getPrice() * 0.10 * 100.0) / 100.0);
-                Reservation r = new Reservation(sel, LocalDate.now(), planned, fee);
-                manager.addReservation(r);
-                JOptionPane.showMessageDialog(this, "Reserved " + sel.getName() + ". Reservation fee: AED " + money.format(fee));
-            } catch (Exception ex) {
+                planned = LocalDate.parse(s.trim());
+            } catch (DateTimeParseException ex) {
                 JOptionPane.showMessageDialog(this, "Invalid date format. Use YYYY-MM-DD.");
+                return;
             }
+            if (planned.isBefore(LocalDate.now())) {
+                JOptionPane.showMessageDialog(this,"Planned date must be today or in future.");
+                return;
+            }
+
+            double fee = Reservation.fee(sel);
+            Reservation r = new Reservation(sel, LocalDate.now(), planned, fee);
+            String user = currentUser;
+            inBackground(reserve, () -> manager.addReservation(user, r), (ok, ex) -> {
+                if (ex != null) {
+                    JOptionPane.showMessageDialog(this, "Could not reserve " + sel.getName() + ": " + ex.getMessage());
+                } else if (!ok) {
+                    JOptionPane.showMessageDialog(this, "Sorry, " + sel.getName() + " is out of stock.");
+                } else {
+                    JOptionPane.showMessageDialog(this, "Reserved " + sel.getName() + ". Reservation fee: AED " + money.format(fee));
+                }
+            });
         });
 
-        back.addActionListener(e -> cards.show(root, "home"));
-        viewCart.addActionListener(e -> cards.show(root, "cart"));
+        back.addActionListener(e -> showCard("home"));
+        viewCart.addActionListener(e -> showCard("cart"));
 
         JPanel btns = new JPanel(); btns.setOpaque(false);
         btns.add(add);
         btns.add(Box.createRigidArea(new Dimension(8,0)));
         btns.add(reserve);
         btns.add(Box.createRigidArea(new Dimension(8,0)));
+        btns.add(fill);
+        btns.add(Box.createRigidArea(new Dimension(8,0)));
         btns.add(viewCart);
         btns.add(Box.createRigidArea(new Dimension(8,0)));
         btns.add(back);
@@ -869,17 +1313,26 @@ public class SmartCartApp extends JFrame {
         h.setBorder(new EmptyBorder(12,12,12,12));
         panel.add(h, BorderLayout.NORTH);
 
-        DefaultListModel<String> model = new DefaultListModel<>();
+        SnapshotListModel<String> model = new SnapshotListModel<>();
         JList<String> list = new JList<>(model);
        
         list.setCellRenderer(new ZebraListRenderer());
+        virtualize(list);
 
         
+        Metrics.Histogram refreshTime = Metrics.get().histogram("panel.cart.refresh");
         Runnable refresh = () -> {
-            model.clear();
-            for (Product p : manager.getCart().getAll()) {
-                model.addElement(p.getId() + " • " + p.getName() + " — AED " + money.format(p.getPrice()));
-            }
+            java.util.List<Cart.Line> items = session().getCart().lines();
+            refreshAsync(list, model, refreshTime, () -> {
+                DecimalFormat money = new DecimalFormat("#0.00");
+                java.util.List<String> rows = new ArrayList<>(items.size());
+                for (Cart.Line line : items) {
+                    Product p = line.product;
+                    String qty = line.quantity > 1 ? " × " + line.quantity : "";
+                    rows.add(p.getId() + " • " + p.getName() + qty + " — AED " + money.format(line.subtotalFils() / 100.0));
+                }
+                return rows;
+            });
             updateBudgetUI();
         };
 
@@ -895,17 +1348,17 @@ public class SmartCartApp extends JFrame {
             String sel = list.getSelectedValue();
             if (sel==null) { JOptionPane.showMessageDialog(this,"Select item to remove."); return; }
             String id = sel.split(" • ")[0];
-            manager.getCart().remove(id);
+            manager.removeFromCart(currentUser, id);
             refresh.run();
             JOptionPane.showMessageDialog(this,"Removed.");
         });
 
         checkout.addActionListener(e -> {
-            if (manager.getCart().isEmpty()) { JOptionPane.showMessageDialog(this,"Cart is empty."); return; }
-            cards.show(root, "checkout");
+            if (session().getCart().isEmpty()) { JOptionPane.showMessageDialog(this,"Cart is empty."); return; }
+            showCard("checkout");
         });
 
-        back.addActionListener(e -> cards.show(root, "home"));
+        back.addActionListener(e -> showCard("home"));
 
         JPanel btns = new JPanel(); btns.setOpaque(false);
         btns.add(remove);
@@ -1013,108 +1466,49 @@ public class SmartCartApp extends JFrame {
         back.setRolloverEnabled(false);
 
         showSummary.addActionListener(e -> {
-            if (manager.getCart().isEmpty()) { JOptionPane.showMessageDialog(this,"Cart is empty."); return; }
+            if (session().getCart().isEmpty()) { JOptionPane.showMessageDialog(this,"Cart is empty."); return; }
             StringBuilder sb = new StringBuilder();
             sb.append("Items:\n");
-            for (Product p : manager.getCart().getAll())
-                sb.append("- ").append(p.getName())
-                  .append(" (AED ").append(money.format(p.getPrice())).append(")\n");
+            for (Cart.Line line : session().getCart().lines()) appendLine(sb, line);
 
-            double total = manager.getCart().total();
+            long total = session().getCart().totalFils();
             String pay = (String) payBox.getSelectedItem();
-            if ("Cash on Delivery".equals(pay)) total += COD_FEE;
+            if ("Cash on Delivery".equals(pay)) total += OrderService.COD_FEE_FILS;
 
-            sb.append("\nTotal: AED ").append(money.format(total));
+            sb.append("\nTotal: AED ").append(money.format(total / 100.0));
             summaryArea.setText(sb.toString());
         });
 
         placeOrder.addActionListener(e -> {
-            if (manager.getCart().isEmpty()) { JOptionPane.showMessageDialog(this,"Cart is empty."); return; }
-            String name = nameField.getText().trim();
-            String addr = addressField.getText().trim();
-            String phone = phoneField.getText().trim();
-            String pay = (String) payBox.getSelectedItem();
-
-            if (name.isEmpty() || addr.isEmpty() || phone.isEmpty()) {
-                JOptionPane.showMessageDialog(this,"Please fill delivery details.");
-                return;
-            }
-            if (!phone.matches("^\\d{9}$")) {
-                JOptionPane.showMessageDialog(this, "Phone must be 9 digits after +971.");
-                return;
-            }
-
-            if ("Card Payment".equals(pay)) {
-                if (cardNumberField.getText().trim().isEmpty()
-                        || cardExpiryField.getText().trim().isEmpty()
-                        || cardCVVField.getText().trim().isEmpty()) {
-                    JOptionPane.showMessageDialog(this, "Please fill all card details.");
-                    return;
-                }
-                String cardNum = cardNumberField.getText().trim();
-                String cvv = cardCVVField.getText().trim();
-                String exp = cardExpiryField.getText().trim();
-                if (!cardNum.matches("^\\d{16}$")) {
-                    JOptionPane.showMessageDialog(this, "Card number must be 16 digits.");
-                    return;
-                }
-                if (!cvv.matches("^\\d{3}$")) {
-                    JOptionPane.showMessageDialog(this, "CVV must be 3 digits.");
-                    return;
-                }
-                if (!isValidExpiry(exp)) {
-                    JOptionPane.showMessageDialog(this, "Expiry must be in MM/YY format and valid.");
+            if (session().getCart().isEmpty()) { JOptionPane.showMessageDialog(this,"Cart is empty."); return; }
+            OrderService.CheckoutRequest request = new OrderService.CheckoutRequest(currentUser, checkoutKey,
+                    nameField.getText(), addressField.getText(), phoneField.getText(),
+                    OrderService.PaymentMethod.fromLabel((String) payBox.getSelectedItem()));
+            request.cardNumber = cardNumberField.getText().trim();
+            request.cardExpiry = cardExpiryField.getText().trim();
+            request.cardCvv = cardCVVField.getText().trim();
+            request.upiId = upiField.getText().trim();
+
+            placeOrder.setEnabled(false);
+            manager.getOrderService().submit(request).whenComplete((order, ex) -> SwingUtilities.invokeLater(() -> {
+                placeOrder.setEnabled(true);
+                if (ex != null) {
+                    Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(this, cause instanceof OrderService.CheckoutException
+                            ? cause.getMessage() : "Order failed — please try again.");
                     return;
                 }
-            } else if ("UPI".equals(pay)) {
-                if (upiField.getText().trim().isEmpty()) {
-                    JOptionPane.showMessageDialog(this, "Please fill UPI ID.");
-                    return;
-                }
-                String upi = upiField.getText().trim();
-                if (!upi.matches("^\\d{6,}$")) {
-                    JOptionPane.showMessageDialog(this, "UPI ID must be digits (min 6).");
-                    return;
-                }
-            }
-
-            StringBuilder sb = new StringBuilder();
-            sb.append("ORDER CONFIRMATION\n\n")
-              .append("Name: ").append(name).append("\n")
-              .append("Address: ").append(addr).append("\n")
-              .append("Phone: +971 ").append(phone).append("\n\n")
-              .append("Items:\n");
-            for (Product p : manager.getCart().getAll())
-                sb.append("- ").append(p.getName())
-                  .append(" (AED ").append(money.format(p.getPrice())).append(")\n");
-
-            double total = manager.getCart().total();
-            if ("Cash on Delivery".equals(pay)) {
-                sb.append("\nPayment: Cash on Delivery (+AED ")
-                  .append(money.format(COD_FEE)).append(" fee)\n");
-                total += COD_FEE;
-            } else if ("Card Payment".equals(pay)) {
-                sb.append("\nPayment: Card Payment\n");
-                sb.append("Card Number: ").append(maskCard(cardNumberField.getText().trim())).append("\n");
-                sb.append("Expiry: ").append(cardExpiryField.getText().trim()).append("\n");
-            } else if ("UPI".equals(pay)) {
-                sb.append("\nPayment: UPI\n");
-                sb.append("UPI ID: ").append(upiField.getText().trim()).append("\n");
-            }
-
-            sb.append("Total: AED ").append(money.format(total)).append("\n\n");
-            sb.append("Thank you for your order!");
-
-            JOptionPane.showMessageDialog(this, sb.toString(), "Order Placed",
-                    JOptionPane.INFORMATION_MESSAGE);
-            manager.getCart().clear();
-            nameField.setText(""); addressField.setText(""); phoneField.setText(""); summaryArea.setText("");
-            cardNumberField.setText(""); cardExpiryField.setText(""); cardCVVField.setText(""); upiField.setText("");
-            budgetSet = false; userBudget = 0.0; updateBudgetUI();
-            cards.show(root, "home");
+                checkoutKey = UUID.randomUUID().toString();
+                JOptionPane.showMessageDialog(this, confirmationText(order), "Order Placed",
+                        JOptionPane.INFORMATION_MESSAGE);
+                nameField.setText(""); addressField.setText(""); phoneField.setText(""); summaryArea.setText("");
+                cardNumberField.setText(""); cardExpiryField.setText(""); cardCVVField.setText(""); upiField.setText("");
+                session().clearBudget(); updateBudgetUI();
+                showCard("home");
+            }));
         });
 
-        back.addActionListener(e -> cards.show(root, "home"));
+        back.addActionListener(e -> showCard("home"));
 
         btnRow.add(showSummary);
         btnRow.add(Box.createRigidArea(new Dimension(8,0)));
@@ -1128,52 +1522,90 @@ public class SmartCartApp extends JFrame {
         return panel;
     }
 
-    private static boolean isValidExpiry(String mmYY) {
-        if (!mmYY.matches("^\\d{2}/\\d{2}$")) return false;
-        try {
-            int mm = Integer.parseInt(mmYY.substring(0,2));
-            int yy = Integer.parseInt(mmYY.substring(3,5));
-            if (mm < 1 || mm > 12) return false;
-            return true;
-        } catch (Exception ex) { return false; }
+    private void appendLine(StringBuilder sb, Cart.Line line) {
+        sb.append("- ").append(line.product.getName());
+        if (line.quantity > 1) sb.append(" × ").append(line.quantity);
+        sb.append(" (AED ").append(money.format(line.subtotalFils() / 100.0)).append(")\n");
     }
 
-    private static String maskCard(String card) {
-        if (card.length() < 4) return card;
-        return "**** **** **** " + card.substring(card.length()-4);
+    private String confirmationText(OrderService.Order order) {
+        OrderService.CheckoutRequest r = order.request;
+        StringBuilder sb = new StringBuilder();
+        sb.append("ORDER CONFIRMATION\n\n")
+          .append("Name: ").append(r.name).append("\n")
+          .append("Address: ").append(r.address).append("\n")
+          .append("Phone: +971 ").append(r.phone).append("\n\n")
+          .append("Items:\n");
+        for (Cart.Line line : order.lines) appendLine(sb, line);
+
+        if (r.payment == OrderService.PaymentMethod.CASH_ON_DELIVERY) {
+            sb.append("\nPayment: Cash on Delivery (+AED ")
+              .append(money.format(order.feeFils / 100.0)).append(" fee)\n");
+        } else if (r.payment == OrderService.PaymentMethod.CARD) {
+            sb.append("\nPayment: Card Payment\n");
+            sb.append("Card Number: ").append(OrderService.maskCard(r.cardNumber)).append("\n");
+            sb.append("Expiry: ").append(r.cardExpiry).append("\n");
+        } else if (r.payment == OrderService.PaymentMethod.UPI) {
+            sb.append("\nPayment: UPI\n");
+            sb.append("UPI ID: ").append(r.upiId).append("\n");
+        }
+
+        sb.append("Total: AED ").append(money.format(order.totalFils() / 100.0)).append("\n\n");
+        sb.append("Thank you for your order!");
+        return sb.toString();
     }
     private JPanel buildReservationsPanel() {
         JPanel panel = new JPanel(new BorderLayout());
         panel.setBackground(softBlue);
         JLabel h = new JLabel("Your Reservations");
         h.setFont(heading); h.setForeground(brandBlue); h.setBorder(new EmptyBorder(12,12,12,12));
-        panel.add(h, BorderLayout.NORTH);
 
-        DefaultListModel<String> model = new DefaultListModel<>();
-        JList<String> list = new JList<>(model);
-        list.setCellRenderer(new ZebraListRenderer());
-
-        Runnable refresh = () -> {
-            model.clear();
-            java.util.List<Reservation> all = manager.getReservations();
-            DateTimeFormatter fmt = DateTimeFormatter.ISO_LOCAL_DATE;
-            int i=1;
-            for (Reservation r : all) {
-                String status = r.cancelled ? "CANCELLED" : (r.purchased ? "PURCHASED" : "ACTIVE");
-                String line = String.format("%d) [%s] %s — AED %s | Reserved: %s | Planned: %s | Fee: AED %s",
-                        i++,
-                        status,
-                        r.product.getName(),
-                        money.format(r.product.getPrice()),
-                        r.reservationDate.format(fmt),
-                        r.plannedPurchaseDate.format(fmt),
-                        money.format(r.fee));
-                model.addElement(line);
-            }
-        };
-        refresh.run();
-
-        JScrollPane scroll = new JScrollPane(list);
+        ReservationTableModel model = new ReservationTableModel(money);
+        JTable table = new JTable(model);
+        table.setFont(normal);
+        table.setRowHeight(table.getFontMetrics(normal).getHeight() + 12);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getTableHeader().setFont(normal);
+        table.getTableHeader().setReorderingAllowed(false);
+
+        JComboBox<String> filter = new JComboBox<>(new String[] { "All", "ACTIVE", "CANCELLED", "PURCHASED", "EXPIRED" });
+        filter.setFont(normal);
+        JButton prev = makeButton("◀ Prev");
+        JButton next = makeButton("Next ▶");
+        JLabel pageLabel = new JLabel();
+        pageLabel.setFont(normal);
+        int[] offset = { 0 };
+
+        // only the visible page is fetched, and the table formats cells as they are painted
+        Runnable refresh = Metrics.get().timed("panel.reservations.refresh", () -> {
+            Reservation.Status status = filter.getSelectedIndex() == 0
+                    ? null : Reservation.Status.valueOf((String) filter.getSelectedItem());
+            int total = manager.countReservations(currentUser, status);
+            if (offset[0] >= total) offset[0] = Math.max(0, (total - 1) / RESERVATION_PAGE * RESERVATION_PAGE);
+            table.clearSelection();
+            model.publish(manager.getReservations(currentUser, status, offset[0], RESERVATION_PAGE), offset[0]);
+            pageLabel.setText(total == 0 ? "No reservations"
+                    : (offset[0] + 1) + "–" + (offset[0] + model.getRowCount()) + " of " + total);
+            prev.setEnabled(offset[0] > 0);
+            next.setEnabled(offset[0] + RESERVATION_PAGE < total);
+        });
+        prev.addActionListener(e -> { offset[0] = Math.max(0, offset[0] - RESERVATION_PAGE); refresh.run(); });
+        next.addActionListener(e -> { offset[0] += RESERVATION_PAGE; refresh.run(); });
+        filter.addActionListener(e -> { offset[0] = 0; refresh.run(); });
+
+        JPanel pager = new JPanel(new FlowLayout(FlowLayout.RIGHT, 6, 12));
+        pager.setOpaque(false);
+        pager.add(filter);
+        pager.add(prev);
+        pager.add(pageLabel);
+        pager.add(next);
+        JPanel header = new JPanel(new BorderLayout());
+        header.setOpaque(false);
+        header.add(h, BorderLayout.WEST);
+        header.add(pager, BorderLayout.EAST);
+        panel.add(header, BorderLayout.NORTH);
+
+        JScrollPane scroll = new JScrollPane(table);
         scroll.setBorder(new LineBorder(Color.LIGHT_GRAY,1,true));
         panel.add(scroll, BorderLayout.CENTER);
 
@@ -1186,56 +1618,68 @@ public class SmartCartApp extends JFrame {
         back.setRolloverEnabled(false);
 
         cancelBtn.addActionListener(e -> {
-            int idx = list.getSelectedIndex();
+            int idx = table.getSelectedRow();
             if (idx < 0) { JOptionPane.showMessageDialog(this, "Select a reservation first."); return; }
-            Reservation r = manager.getReservations().get(idx);
-            if (r.cancelled) { JOptionPane.showMessageDialog(this, "Already cancelled."); return; }
-            if (r.purchased) { JOptionPane.showMessageDialog(this, "Already purchased."); return; }
-
-            long days = ChronoUnit.DAYS.between(LocalDate.now(), r.plannedPurchaseDate);
-            double refund = 0.0;
-            if (days > 7) {
-                refund = r.fee; 
-            } else if (days >= 0) {
-                refund = r.fee * 0.5; 
-            } else {
-                refund = 0.0; 
-            }
-            r.cancelled = true;
-            JOptionPane.showMessageDialog(this, String.format("Reservation cancelled. Refund: AED %s", money.format(refund)));
-            refresh.run();
+            Reservation r = model.get(idx);
+            if (r.status == Reservation.Status.CANCELLED) { JOptionPane.showMessageDialog(this, "Already cancelled."); return; }
+            if (r.status == Reservation.Status.PURCHASED) { JOptionPane.showMessageDialog(this, "Already purchased."); return; }
+            if (r.status == Reservation.Status.EXPIRED) { JOptionPane.showMessageDialog(this, "Reservation expired."); return; }
+
+            inBackground(cancelBtn, () -> manager.cancelReservation(r), (refund, ex) -> {
+                if (ex instanceof IllegalStateException) {
+                    JOptionPane.showMessageDialog(this, "Reservation is no longer active.");
+                } else if (ex != null) {
+                    JOptionPane.showMessageDialog(this, "Could not cancel the reservation: " + ex.getMessage());
+                } else {
+                    JOptionPane.showMessageDialog(this, "Reservation cancelled. Refund: AED " + money.format(refund));
+                }
+                refresh.run();
+            });
         });
 
         purchaseNow.addActionListener(e -> {
-            int idx = list.getSelectedIndex();
+            int idx = table.getSelectedRow();
             if (idx < 0) { JOptionPane.showMessageDialog(this, "Select a reservation first."); return; }
-            Reservation r = manager.getReservations().get(idx);
-            if (r.cancelled) { JOptionPane.showMessageDialog(this, "Reservation cancelled — cannot purchase."); return; }
-            if (r.purchased) { JOptionPane.showMessageDialog(this, "Already purchased."); return; }
-             manager.getCart().add(r.product);
-            r.purchased = true;
-            r.purchaseDate = LocalDate.now();
-            updateBudgetUI();
-            JOptionPane.showMessageDialog(this, r.product.getName() + " moved to cart. Proceed to checkout to complete purchase.");
-            refresh.run();
+            Reservation r = model.get(idx);
+            if (r.status == Reservation.Status.CANCELLED) { JOptionPane.showMessageDialog(this, "Reservation cancelled — cannot purchase."); return; }
+            if (r.status == Reservation.Status.PURCHASED) { JOptionPane.showMessageDialog(this, "Already purchased."); return; }
+            if (r.status == Reservation.Status.EXPIRED) { JOptionPane.showMessageDialog(this, "Reservation expired — cannot purchase."); return; }
+            String user = currentUser;
+            inBackground(purchaseNow, () -> {
+                manager.purchaseReservation(user, r);
+                return r;
+            }, (done, ex) -> {
+                if (ex instanceof IllegalStateException) {
+                    JOptionPane.showMessageDialog(this, "Reservation is no longer active.");
+                } else if (ex != null) {
+                    JOptionPane.showMessageDialog(this, "Could not purchase the reservation: " + ex.getMessage());
+                } else {
+                    updateBudgetUI();
+                    JOptionPane.showMessageDialog(this, r.product.getName() + " moved to cart. Proceed to checkout to complete purchase.");
+                }
+                refresh.run();
+            });
         });
 
         details.addActionListener(e -> {
-            int idx = list.getSelectedIndex();
+            int idx = table.getSelectedRow();
             if (idx < 0) { JOptionPane.showMessageDialog(this, "Select a reservation first."); return; }
-            Reservation r = manager.getReservations().get(idx);
+            Reservation r = model.get(idx);
             StringBuilder sb = new StringBuilder();
             sb.append("Product: ").append(r.product.getName()).append("\n");
             sb.append("Price: AED ").append(money.format(r.product.getPrice())).append("\n");
             sb.append("Reserved on: ").append(r.reservationDate).append("\n");
             sb.append("Planned purchase date: ").append(r.plannedPurchaseDate).append("\n");
             sb.append("Reservation fee: AED ").append(money.format(r.fee)).append("\n");
-            sb.append("Status: ").append(r.cancelled ? "CANCELLED" : r.purchased ? "PURCHASED" : "ACTIVE").append("\n");
-            if (r.purchased) sb.append("Purchased on: ").append(r.purchaseDate).append("\n");
+            sb.append("Status: ").append(r.status).append("\n");
+            if (r.status == Reservation.Status.PURCHASED) sb.append("Purchased on: ").append(r.purchaseDate).append("\n");
+            if (r.status == Reservation.Status.CANCELLED || r.status == Reservation.Status.EXPIRED) {
+                sb.append("Refund: AED ").append(money.format(r.refund)).append("\n");
+            }
             JOptionPane.showMessageDialog(this, sb.toString());
         });
 
-        back.addActionListener(e -> cards.show(root, "home"));
+        back.addActionListener(e -> showCard("home"));
 
         JPanel btns = new JPanel(); btns.setOpaque(false);
         btns.add(details); btns.add(Box.createRigidArea(new Dimension(8,0)));
@@ -1245,6 +1689,10 @@ public class SmartCartApp extends JFrame {
         btns.setBorder(new EmptyBorder(12,12,12,12));
         panel.add(btns, BorderLayout.SOUTH);
 
+        manager.getScheduler().addListener(r -> SwingUtilities.invokeLater(() -> {
+            if (panel.isShowing()) refresh.run();
+        }));
+
         panel.addComponentListener(new ComponentAdapter() {
             @Override
             public void componentShown(ComponentEvent e) { refresh.run(); }
@@ -1252,55 +1700,12 @@ public class SmartCartApp extends JFrame {
 
         return panel;
     }
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--headless")) {
+            SmartCartCli.main(args);
+            return;
+        }
+        Metrics.EdtWatchdog.install(EDT_STALL_MS);
         SwingUtilities.invokeLater(SmartCartApp::new);
     }
 }
-class SmartCartManager {
-
-    private final java.util.List<SmartCartApp.Product> inventory = new ArrayList<>();
-    private final java.util.List<String> usernames = new ArrayList<>();
-    private final java.util.List<String> passwords = new ArrayList<>();
-    private final SmartCartApp.Cart cart = new SmartCartApp.Cart();
-    private final java.util.List<SmartCartApp.Reservation> reservations = new ArrayList<>();
-
-    public SmartCartManager() {
-        initData();
-    }
-    private void initData() {
-        usernames.add("user"); passwords.add("user123");
-        usernames.add("admin"); passwords.add("admin123");
-        inventory.add(new SmartCartApp.Electronics("E101","Samsung Galaxy Buds 2", 249));
-        inventory.add(new SmartCartApp.Electronics("E102","Apple iPad 10th Gen (64GB)", 1499));
-        inventory.add(new SmartCartApp.Electronics("E103","Sony WH-1000XM4", 999));
-        inventory.add(new SmartCartApp.Electronics("E104","Logitech MX Master 3S Mouse", 299));
-        inventory.add(new SmartCartApp.Electronics("E105","Anker PowerCore 20000mAh", 129));
-        inventory.add(new SmartCartApp.Electronics("E106","Apple iPhone 15 Pro", 3999));
-        inventory.add(new SmartCartApp.Electronics("E107","Samsung Galaxy S24 Ultra", 4299));
-        inventory.add(new SmartCartApp.Electronics("E108","MacBook Air M2 13\"", 4999));
-        inventory.add(new SmartCartApp.Electronics("E109","Dell G15 Gaming Laptop", 3899));
-        inventory.add(new SmartCartApp.Electronics("E110","Sony WH-1000XM5", 1399));
-        inventory.add(new SmartCartApp.Electronics("E111","JBL Flip 6 Bluetooth Speaker", 399));
-        inventory.add(new SmartCartApp.Electronics("E112","Google Pixel 8a", 1699));
-        inventory.add(new SmartCartApp.Clothing("C201","Nike Air Max T-Shirt", 99));
-        inventory.add(new SmartCartApp.Clothing("C202","Adidas Joggers", 149));
-        inventory.add(new SmartCartApp.Clothing("C203","Zara Women's Top", 89));
-        inventory.add(new SmartCartApp.Clothing("C204","H&M Hoodie", 119));
-        inventory.add(new SmartCartApp.Clothing("C205","Levi's 511 Jeans", 199));
-        inventory.add(new SmartCartApp.Clothing("C206","Men's Classic Hoodie", 149));
-        inventory.add(new SmartCartApp.Clothing("C207","Women's Lightweight Jacket", 199));
-        inventory.add(new SmartCartApp.Clothing("C208","Sneakers (Unisex)", 259));
-        inventory.add(new SmartCartApp.Clothing("C209","Sports T-Shirt", 89));
-        inventory.add(new SmartCartApp.Clothing("C210","Formal Shirt", 129));
-        inventory.add(new SmartCartApp.Clothing("C211","Slim Fit Jeans", 159));
-        inventory.add(new SmartCartApp.Clothing("C212","Summer Dress", 149));
-    }
-    public java.util.List<SmartCartApp.Product> getInventory() { return inventory; }
-    public SmartCartApp.Cart getCart() { return cart; }
-    public java.util.List<String> getUsernames() { return usernames; }
-    public java.util.List<String> getPasswords() { return passwords; }
-    public java.util.List<SmartCartApp.Reservation> getReservations() { return reservations; }
-    public void addReservation(SmartCartApp.Reservation r) {
-        reservations.add(r);
-    }
-}
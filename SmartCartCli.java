@@ -0,0 +1,375 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+// Batch entry point for servers. It drives SmartCartManager directly and never touches AWT or Swing,
+// so run it as `java SmartCartCli ...`; `java SmartCartApp --headless ...` also works but loads the
+// AWT classes SmartCartApp extends.
+final class SmartCartCli {
+
+    private static final String USAGE = String.join("\n",
+            "usage: java SmartCartCli [--data <dir>] [--metrics] <command> [args]",
+            "  (the data directory defaults to -Dsmartcart.data, or ./smartcart-data)",
+            "  import-products <csv>    id,category,name,price[,stock] per line adds or replaces products,",
+            "                           id,price[,stock] changes an existing product's price; parsed in parallel",
+            "  convert-catalog <csv>    writes <dir>/" + SmartCartManager.CATALOG_FILE + " for large read-only catalogs",
+            "  register <csv>           username,password per line",
+            "  reserve <csv>            user,productId,plannedDate per line",
+            "  place-orders <csv>       key,user,name,address,phone,payment,paymentDetail,items per line;",
+            "                           payment is COD, CARD or UPI, CARD detail is \"number MM/YY cvv\",",
+            "                           items are id:qty separated by ';'",
+            "  search <words>           ranked product search",
+            "  report sales|fees        sales totals or reservation fee/refund totals",
+            "  report daily <from> <to> revenue per category for each day, dates as YYYY-MM-DD",
+            "  report by <day|category|product|payment> <from> <to> [category] [COD|CARD|UPI]",
+            "                           units and revenue of the order lines placed in the range",
+            "  audit                    prints the audit log",
+            "  compact                  snapshots the state log",
+            "  serve [port]             HTTP API on the port (default 8080) until stopped, see SmartCartServer");
+
+    private static final int ORDER_BLOCK = 1024;
+
+    private final SmartCartManager manager;
+    private final Path dir;
+    private final PrintStream out;
+    private int errors;
+
+    private SmartCartCli(SmartCartManager manager, Path dir, PrintStream out) {
+        this.manager = manager;
+        this.dir = dir;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args, System.out));
+    }
+
+    static int run(String[] args, PrintStream out) throws IOException {
+        Path dir = Paths.get(System.getProperty("smartcart.data", "smartcart-data"));
+        int a = 0;
+        if (a < args.length && args[a].equals("--headless")) a++;
+        if (a + 1 < args.length && args[a].equals("--data")) {
+            dir = Paths.get(args[a + 1]);
+            a += 2;
+        }
+        boolean metrics = a < args.length && args[a].equals("--metrics");
+        if (metrics) a++;
+        if (a >= args.length) {
+            System.err.println(USAGE);
+            return 2;
+        }
+        String command = args[a];
+        String[] rest = Arrays.copyOfRange(args, a + 1, args.length);
+        if (command.equals("convert-catalog")) {
+            if (rest.length != 1) return usage();
+            long start = System.nanoTime();
+            int rows = ColumnarCatalog.convertCsv(Paths.get(rest[0]), dir.resolve(SmartCartManager.CATALOG_FILE));
+            out.println("converted " + rows + " products in " + millis(start) + " ms");
+            return 0;
+        }
+        if (command.equals("audit")) {
+            long n = AuditLog.replay(dir.resolve(SmartCartManager.AUDIT_FILE), out::println);
+            out.println(n + " events");
+            return 0;
+        }
+        SmartCartManager manager = SmartCartManager.open(dir);
+        try {
+            SmartCartCli cli = new SmartCartCli(manager, dir, out);
+            switch (command) {
+                case "import-products": return rest.length == 1 ? cli.importProducts(Paths.get(rest[0])) : usage();
+                case "register": return rest.length == 1 ? cli.register(Paths.get(rest[0])) : usage();
+                case "reserve": return rest.length == 1 ? cli.reserve(Paths.get(rest[0])) : usage();
+                case "place-orders": return rest.length == 1 ? cli.placeOrders(Paths.get(rest[0])) : usage();
+                case "search": return rest.length >= 1 ? cli.search(String.join(" ", rest)) : usage();
+                case "report": return rest.length >= 1 ? cli.report(rest[0], Arrays.copyOfRange(rest, 1, rest.length)) : usage();
+                case "compact": manager.compact(); return 0;
+                case "serve": return rest.length <= 1 ? cli.serve(rest.length == 0 ? 8080 : Integer.parseInt(rest[0])) : usage();
+                default: return usage();
+            }
+        } finally {
+            manager.close();
+            if (metrics) System.err.print(Metrics.get().dump());
+        }
+    }
+
+    private static int usage() {
+        System.err.println(USAGE);
+        return 2;
+    }
+
+    private interface LineHandler {
+        void handle(String[] fields) throws Exception;
+    }
+
+    // handles a block of lines together; returns one error message per line, null where the line succeeded
+    private interface BlockHandler {
+        String[] handle(List<String[]> lines);
+    }
+
+    private int eachLine(Path file, int minFields, String what, LineHandler handler) throws IOException {
+        return eachBlock(file, minFields, what, 1, lines -> {
+            try {
+                handler.handle(lines.get(0));
+                return new String[1];
+            } catch (Exception e) {
+                return new String[] { e.getMessage() };
+            }
+        });
+    }
+
+    // a block of lines at a time, so input files of any size run in constant memory; bad lines are
+    // reported and skipped
+    private int eachBlock(Path file, int minFields, String what, int blockSize, BlockHandler handler) throws IOException {
+        long start = System.nanoTime();
+        int[] done = new int[1];
+        List<String[]> block = new ArrayList<>(blockSize);
+        List<Integer> lineNos = new ArrayList<>(blockSize);
+        int lineNo = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank() || line.startsWith("#")) continue;
+                String[] fields = line.split(",", -1);
+                if (fields.length < minFields) {
+                    // the lines before it go first, so errors are reported in file order
+                    if (!block.isEmpty()) handleBlock(file, block, lineNos, handler, done);
+                    failed(file, lineNo, "expected " + minFields + " fields");
+                    continue;
+                }
+                for (int i = 0; i < fields.length; i++) fields[i] = fields[i].trim();
+                block.add(fields);
+                lineNos.add(lineNo);
+                if (block.size() == blockSize) handleBlock(file, block, lineNos, handler, done);
+            }
+            if (!block.isEmpty()) handleBlock(file, block, lineNos, handler, done);
+        }
+        long ms = Math.max(1, millis(start));
+        out.println(what + ": " + done[0] + " ok, " + errors + " failed in " + ms + " ms (" + (done[0] * 1000L / ms) + "/s)");
+        return errors == 0 ? 0 : 1;
+    }
+
+    private void handleBlock(Path file, List<String[]> block, List<Integer> lineNos, BlockHandler handler, int[] done) {
+        String[] failures = handler.handle(block);
+        for (int i = 0; i < failures.length; i++) {
+            if (failures[i] == null) done[0]++; else failed(file, lineNos.get(i), failures[i]);
+        }
+        block.clear();
+        lineNos.clear();
+    }
+
+    private void failed(Path file, int lineNo, String message) {
+        errors++;
+        System.err.println(file + ":" + lineNo + ": " + message);
+    }
+
+    private int importProducts(Path csv) throws IOException {
+        CatalogImport.Result r = CatalogImport.run(manager, csv, System.err::println);
+        out.println(String.format(Locale.ROOT, "products: %d rows, %d changed, %d unchanged, %d failed in %d ms (%.0f rows/s)",
+                r.rows, r.changed, r.unchanged, r.rejected, r.nanos / 1_000_000, r.rowsPerSecond()));
+        return r.rejected == 0 ? 0 : 1;
+    }
+
+    private int register(Path csv) throws IOException {
+        return eachLine(csv, 2, "users", f -> {
+            if (!manager.register(f[0], f[1]).join()) throw new IllegalArgumentException("user " + f[0] + " already exists");
+        });
+    }
+
+    private int reserve(Path csv) throws IOException {
+        LocalDate today = LocalDate.now();
+        return eachLine(csv, 3, "reservations", f -> {
+            if (!manager.userExists(f[0])) throw new IllegalArgumentException("unknown user " + f[0]);
+            SmartCartApp.Product p = manager.findProduct(f[1]);
+            if (p == null) throw new IllegalArgumentException("unknown product " + f[1]);
+            LocalDate planned = LocalDate.parse(f[2]);
+            if (planned.isBefore(today)) throw new IllegalArgumentException("planned date is in the past");
+            if (!manager.addReservation(f[0], new SmartCartApp.Reservation(p, today, planned, SmartCartApp.Reservation.fee(p)))) {
+                throw new IllegalStateException(p.getId() + " is out of stock");
+            }
+        });
+    }
+
+    // the checkout details of a block are validated in one pass before any cart is filled
+    private int placeOrders(Path csv) throws IOException {
+        long[] revenue = new long[1];
+        YearMonth month = YearMonth.now();
+        int status = eachBlock(csv, 8, "orders", ORDER_BLOCK, lines -> {
+            String[] failures = new String[lines.size()];
+            List<OrderService.CheckoutRequest> requests = new ArrayList<>(lines.size());
+            List<Integer> parsed = new ArrayList<>(lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                try {
+                    requests.add(request(lines.get(i)));
+                    parsed.add(i);
+                } catch (IllegalArgumentException e) {
+                    failures[i] = e.getMessage();
+                }
+            }
+            Validators.Result[] valid = Validators.checkoutAll(requests, month);
+            for (int k = 0; k < valid.length; k++) {
+                int i = parsed.get(k);
+                if (valid[k] != Validators.Result.OK) {
+                    failures[i] = valid[k].message;
+                    continue;
+                }
+                try {
+                    OrderService.Order order = place(requests.get(k), lines.get(i)[7]);
+                    // a repeated key returns the earlier order, which is already counted
+                    if (order.request == requests.get(k)) revenue[0] += order.totalFils();
+                } catch (Exception e) {
+                    failures[i] = e.getMessage();
+                }
+            }
+            return failures;
+        });
+        out.println("revenue: AED " + String.format(Locale.ROOT, "%.2f", revenue[0] / 100.0));
+        return status;
+    }
+
+    private OrderService.CheckoutRequest request(String[] f) {
+        String user = f[1];
+        if (!manager.userExists(user)) throw new IllegalArgumentException("unknown user " + user);
+        OrderService.PaymentMethod payment = OrderService.PaymentMethod.fromCode(f[5]);
+        OrderService.CheckoutRequest request = new OrderService.CheckoutRequest(user,
+                f[0].isEmpty() ? UUID.randomUUID().toString() : f[0], f[2], f[3], f[4], payment);
+        if (payment == OrderService.PaymentMethod.CARD) {
+            String[] card = f[6].split(" ");
+            if (card.length != 3) throw new IllegalArgumentException("card detail must be \"number MM/YY cvv\"");
+            request.cardNumber = card[0];
+            request.cardExpiry = card[1];
+            request.cardCvv = card[2];
+        } else if (payment == OrderService.PaymentMethod.UPI) {
+            request.upiId = f[6];
+        }
+        return request;
+    }
+
+    private OrderService.Order place(OrderService.CheckoutRequest request, String items) throws OrderService.CheckoutException {
+        String user = request.user;
+        if (!manager.session(user).getCart().isEmpty()) throw new IllegalStateException(user + " has items in the cart");
+        try {
+            for (String item : items.split(";")) {
+                String[] idQty = item.split(":");
+                SmartCartApp.Product p = manager.findProduct(idQty[0].trim());
+                if (p == null) throw new IllegalArgumentException("unknown product " + idQty[0]);
+                int qty = idQty.length > 1 ? Integer.parseInt(idQty[1].trim()) : 1;
+                for (int i = 0; i < qty; i++) {
+                    if (!manager.addToCart(user, p)) throw new IllegalStateException(p.getId() + " is out of stock");
+                }
+            }
+            return manager.getOrderService().place(request);
+        } finally {
+            manager.clearCart(user);
+        }
+    }
+
+    // blocks until the process is stopped; the shutdown hook closes the manager so the log is flushed
+    private int serve(int port) throws IOException {
+        SmartCartServer server = SmartCartServer.start(manager, new InetSocketAddress(port));
+        out.println("listening on http://localhost:" + server.port() + "/api/");
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                manager.close();
+            } catch (IOException e) {
+                System.err.println("SmartCart: could not save data: " + e.getMessage());
+            }
+            stopped.countDown();
+        }, "smartcart-http-shutdown"));
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
+    private int search(String query) {
+        for (SmartCartApp.Product p : manager.search(query, null, Double.MAX_VALUE, 20)) {
+            out.println(p.getId() + "\t" + p.getCategory() + "\t" + p.getName() + "\t" + p.getPrice());
+        }
+        return 0;
+    }
+
+    private int report(String what, String[] args) {
+        if (!what.equals("daily") && !what.equals("by") && args.length > 0) return usage();
+        switch (what) {
+            case "sales": {
+                SalesAnalytics sales = manager.getSales();
+                out.println("orders: " + sales.orders() + ", lines: " + sales.lines());
+                for (SalesAnalytics.Dimension d : new SalesAnalytics.Dimension[] {
+                        SalesAnalytics.Dimension.CATEGORY, SalesAnalytics.Dimension.PAYMENT }) {
+                    out.println("by " + d.name().toLowerCase(Locale.ROOT) + ":");
+                    for (SalesAnalytics.Row row : sales.totals(d)) out.println("  " + row);
+                }
+                out.println("top products:");
+                for (SalesAnalytics.Row row : sales.topProducts(10)) out.println("  " + row);
+                return 0;
+            }
+            case "fees": {
+                FeeEngine.Report r = manager.feeReport();
+                out.println("fees: AED " + r.totalFee() / 100.0 + ", refunds: AED " + r.totalRefund() / 100.0);
+                for (int d = 0; d < r.days; d++) {
+                    for (String c : ColumnarCatalog.CATEGORIES) {
+                        long fee = r.fee(r.day(d), c), refund = r.refund(r.day(d), c);
+                        if (fee != 0 || refund != 0) out.println("  " + r.day(d) + " " + c + " fees=" + fee / 100.0 + " refunds=" + refund / 100.0);
+                    }
+                }
+                return 0;
+            }
+            case "daily": {
+                if (args.length != 2) return usage();
+                SortedMap<LocalDate, long[]> days = manager.getSales().revenueByCategoryPerDay(
+                        LocalDate.parse(args[0]), LocalDate.parse(args[1]));
+                out.println("day\t" + String.join("\t", ColumnarCatalog.CATEGORIES));
+                for (Map.Entry<LocalDate, long[]> e : days.entrySet()) {
+                    StringBuilder row = new StringBuilder(e.getKey().toString());
+                    for (long fils : e.getValue()) row.append('\t').append(fils / 100.0);
+                    out.println(row);
+                }
+                return 0;
+            }
+            case "by": {
+                if (args.length < 3 || args.length > 5) return usage();
+                SalesAnalytics.Dimension dimension = SalesAnalytics.Dimension.valueOf(args[0].toUpperCase(Locale.ROOT));
+                String category = null;
+                OrderService.PaymentMethod payment = null;
+                // the optional filters are told apart by their values
+                for (int i = 3; i < args.length; i++) {
+                    if (Arrays.asList(ColumnarCatalog.CATEGORIES).contains(args[i])) {
+                        category = args[i];
+                    } else {
+                        payment = OrderService.PaymentMethod.fromCode(args[i]);
+                    }
+                }
+                long start = System.nanoTime();
+                List<SalesAnalytics.Row> rows = manager.getSales().query(dimension, LocalDate.parse(args[1]),
+                        LocalDate.parse(args[2]), category, payment);
+                for (SalesAnalytics.Row row : rows) out.println("  " + row);
+                out.println(rows.size() + " rows in " + millis(start) + " ms");
+                return 0;
+            }
+            default: return usage();
+        }
+    }
+
+    private static long millis(long start) { return (System.nanoTime() - start) / 1_000_000; }
+}
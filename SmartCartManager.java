@@ -0,0 +1,713 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+class SmartCartManager {
+
+    private static final long COMPACT_LOG_BYTES = 64L << 20;
+    private static final int REPLAY_BATCH = 16_384;
+    static final String CATALOG_FILE = "catalog.scc";
+    static final String AUDIT_FILE = "audit.log";
+    static final String ORDERS_DIR = "orders";
+    // the seeded account that may read the sales reports
+    static final String ADMIN = "admin";
+
+    private final CatalogIndex catalog = new CatalogIndex();
+    private final UserStore users = new UserStore();
+    private final ConcurrentHashMap<String, SmartCartApp.Session> sessions = new ConcurrentHashMap<>();
+    private final ReservationIndex reservations = new ReservationIndex();
+    private final ColumnarCatalog columnar;
+    private final SmartCartStore store;
+    private final AuditLog audit;
+    // order history is append-only and kept apart from the compacted state log
+    private final SmartCartStore orderLog;
+    private final SalesAnalytics sales = new SalesAnalytics();
+    // orders whose stock is committed in the state log but not yet in the order history, by order id
+    private final ConcurrentHashMap<String, String[]> unrecorded = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService compactor;
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private final OrderService orders = new OrderService(this);
+    private final ReservationScheduler scheduler = new ReservationScheduler(this, Clock.systemDefaultZone());
+    private final StockLedger stock = new StockLedger();
+    private final Metrics.Histogram cartAddTime = Metrics.get().histogram("cart.add");
+    private final Metrics.Histogram cartRemoveTime = Metrics.get().histogram("cart.remove");
+    private final Metrics.Counter outOfStock = Metrics.get().counter("cart.outOfStock");
+    private final Metrics.Histogram searchTime = Metrics.get().histogram("search");
+    private final Metrics.Histogram loginTime = Metrics.get().histogram("login");
+    private volatile SearchIndex search;
+    private final java.util.List<SmartCartApp.Product> replayed = new ArrayList<>();
+    private long nextReservationId = 1;
+
+    public SmartCartManager() {
+        this(SmartCartStore.IN_MEMORY, null, AuditLog.discarding(), SmartCartStore.IN_MEMORY);
+    }
+
+    public SmartCartManager(SmartCartStore store, ColumnarCatalog columnar, AuditLog audit, SmartCartStore orderLog) {
+        this.store = store;
+        this.columnar = columnar;
+        this.audit = audit;
+        this.orderLog = orderLog;
+        try {
+            store.replay(this::apply);
+            publishReplayed();
+            orderLog.replay(this::applyOrder);
+            recoverOrders();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load saved SmartCart data", e);
+        }
+        initData();
+        for (SmartCartApp.Reservation.Status s : SmartCartApp.Reservation.Status.values()) {
+            Metrics.get().gauge("reservations." + s.name().toLowerCase(Locale.ROOT), () -> reservations.count(s));
+        }
+        scheduler.start(1, TimeUnit.HOURS);
+        if (store == SmartCartStore.IN_MEMORY) {
+            compactor = null;
+        } else {
+            compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "smartcart-compactor");
+                t.setDaemon(true);
+                return t;
+            });
+            compactor.scheduleWithFixedDelay(this::compactIfNeeded, 1, 1, TimeUnit.MINUTES);
+        }
+    }
+
+    static SmartCartManager open(Path dir) {
+        LogStore store = null, orderLog = null;
+        AuditLog audit = null;
+        try {
+            Path catalogFile = dir.resolve(CATALOG_FILE);
+            ColumnarCatalog columnar = Files.exists(catalogFile) ? ColumnarCatalog.open(catalogFile) : null;
+            store = LogStore.open(dir);
+            orderLog = LogStore.open(dir.resolve(ORDERS_DIR));
+            audit = AuditLog.open(dir.resolve(AUDIT_FILE), 1 << 16);
+            return new SmartCartManager(store, columnar, audit, orderLog);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("SmartCart: saved data unavailable, running in memory: " + e.getMessage());
+            if (store != null) {
+                try { store.close(); } catch (IOException ignored) { }
+            }
+            if (orderLog != null) {
+                try { orderLog.close(); } catch (IOException ignored) { }
+            }
+            if (audit != null) {
+                try { audit.close(); } catch (IOException ignored) { }
+            }
+            return new SmartCartManager();
+        }
+    }
+
+    private void initData() {
+        if (users.size() == 0) {
+            addUser(users.hash("user", "user123", UserStore.DEFAULT_ITERATIONS));
+            addUser(users.hash(ADMIN, "admin123", UserStore.DEFAULT_ITERATIONS));
+        }
+        if (catalog.size() > 0 || columnar != null) return;
+        addProduct(new SmartCartApp.Electronics("E101","Samsung Galaxy Buds 2", 249));
+        addProduct(new SmartCartApp.Electronics("E102","Apple iPad 10th Gen (64GB)", 1499));
+        addProduct(new SmartCartApp.Electronics("E103","Sony WH-1000XM4", 999));
+        addProduct(new SmartCartApp.Electronics("E104","Logitech MX Master 3S Mouse", 299));
+        addProduct(new SmartCartApp.Electronics("E105","Anker PowerCore 20000mAh", 129));
+        addProduct(new SmartCartApp.Electronics("E106","Apple iPhone 15 Pro", 3999));
+        addProduct(new SmartCartApp.Electronics("E107","Samsung Galaxy S24 Ultra", 4299));
+        addProduct(new SmartCartApp.Electronics("E108","MacBook Air M2 13\"", 4999));
+        addProduct(new SmartCartApp.Electronics("E109","Dell G15 Gaming Laptop", 3899));
+        addProduct(new SmartCartApp.Electronics("E110","Sony WH-1000XM5", 1399));
+        addProduct(new SmartCartApp.Electronics("E111","JBL Flip 6 Bluetooth Speaker", 399));
+        addProduct(new SmartCartApp.Electronics("E112","Google Pixel 8a", 1699));
+        addProduct(new SmartCartApp.Clothing("C201","Nike Air Max T-Shirt", 99));
+        addProduct(new SmartCartApp.Clothing("C202","Adidas Joggers", 149));
+        addProduct(new SmartCartApp.Clothing("C203","Zara Women's Top", 89));
+        addProduct(new SmartCartApp.Clothing("C204","H&M Hoodie", 119));
+        addProduct(new SmartCartApp.Clothing("C205","Levi's 511 Jeans", 199));
+        addProduct(new SmartCartApp.Clothing("C206","Men's Classic Hoodie", 149));
+        addProduct(new SmartCartApp.Clothing("C207","Women's Lightweight Jacket", 199));
+        addProduct(new SmartCartApp.Clothing("C208","Sneakers (Unisex)", 259));
+        addProduct(new SmartCartApp.Clothing("C209","Sports T-Shirt", 89));
+        addProduct(new SmartCartApp.Clothing("C210","Formal Shirt", 129));
+        addProduct(new SmartCartApp.Clothing("C211","Slim Fit Jeans", 159));
+        addProduct(new SmartCartApp.Clothing("C212","Summer Dress", 149));
+        for (SmartCartApp.Product p : catalog.all()) setStock(p.getId(), p instanceof SmartCartApp.Electronics ? 10 : 25);
+    }
+    public java.util.List<SmartCartApp.Product> getInventory() {
+        if (columnar == null) return catalog.all();
+        java.util.List<SmartCartApp.Product> all = new ArrayList<>(catalog.all());
+        all.addAll(columnar.all());
+        return all;
+    }
+    public void addProduct(SmartCartApp.Product p) {
+        addProducts(java.util.List.of(p), Map.of());
+    }
+    // the batch is logged first and then published to readers in one catalog swap; carts holding a
+    // replaced product switch to the new one, so live carts and replay price them the same way.
+    // On-hand counts are set before anything is logged: a product whose count is below the units
+    // already held is refused on its own, and none of its changes reach the log or the catalog.
+    // Returns the refused ids with the reason.
+    public Map<String, String> addProducts(Collection<SmartCartApp.Product> products, Map<String, Integer> onHand) {
+        return mutateAndGet(this, () -> {
+            Map<String, String> refused = new HashMap<>();
+            for (Map.Entry<String, Integer> e : onHand.entrySet()) {
+                try {
+                    stock.setOnHand(e.getKey(), e.getValue());
+                } catch (IllegalArgumentException bad) {
+                    refused.put(e.getKey(), bad.getMessage());
+                }
+            }
+            java.util.List<SmartCartApp.Product> accepted = new ArrayList<>(products.size());
+            for (SmartCartApp.Product p : products) if (!refused.containsKey(p.getId())) accepted.add(p);
+            for (SmartCartApp.Product p : accepted) {
+                store.append("product", p.getId(), p.getCategory(), p.getName(), Double.toString(p.getPrice()));
+            }
+            for (Map.Entry<String, Integer> e : onHand.entrySet()) {
+                if (!refused.containsKey(e.getKey())) store.append("stock", e.getKey(), Integer.toString(e.getValue()));
+            }
+            catalog.addAll(accepted);
+            if (search != null) for (SmartCartApp.Product p : accepted) search.add(p);
+            repriceCarts(accepted);
+            return refused;
+        });
+    }
+    // bulk writers wait here between batches so the log writer never queues more than one batch
+    public void flushLog() throws IOException { store.flush(); }
+    // the index is built on the first search and kept current by addProducts afterwards
+    public java.util.List<SmartCartApp.Product> search(String query, String category, double maxPrice, int limit) {
+        SearchIndex index = search;
+        if (index == null) {
+            synchronized (this) {
+                if (search == null) {
+                    index = new SearchIndex();
+                    if (columnar != null) for (SmartCartApp.Product p : columnar.all()) index.add(p);
+                    for (SmartCartApp.Product p : catalog.all()) index.add(p);
+                    search = index;
+                }
+                index = search;
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            return index.search(query, category, maxPrice, limit);
+        } finally {
+            searchTime.since(start);
+        }
+    }
+    public void setStock(String id, int onHand) {
+        mutate(this, () -> {
+            stock.setOnHand(id, onHand);
+            store.append("stock", id, Integer.toString(onHand));
+        });
+    }
+    public int availableStock(String id) { return stock.available(id); }
+    public SmartCartApp.Product findProduct(String id) {
+        SmartCartApp.Product p = catalog.get(id);
+        if (p == null && columnar != null) {
+            int row = columnar.find(id);
+            if (row >= 0) p = columnar.product(row);
+        }
+        return p;
+    }
+    public java.util.List<SmartCartApp.Product> getProducts(String category) {
+        return getProducts(category, Double.MAX_VALUE);
+    }
+    public java.util.List<SmartCartApp.Product> getProducts(String category, double maxPrice) {
+        java.util.List<SmartCartApp.Product> own = catalog.inCategory(category, maxPrice);
+        if (columnar == null) return own;
+        java.util.List<SmartCartApp.Product> mapped = columnar.inCategory(category, maxPrice);
+        if (own.isEmpty()) return mapped;
+        // products added at runtime override catalog-file rows with the same id
+        java.util.List<SmartCartApp.Product> merged = new ArrayList<>(own.size() + mapped.size());
+        int i = 0;
+        for (SmartCartApp.Product p : mapped) {
+            if (catalog.get(p.getId()) != null) continue;
+            while (i < own.size() && own.get(i).getPrice() <= p.getPrice()) merged.add(own.get(i++));
+            merged.add(p);
+        }
+        merged.addAll(own.subList(i, own.size()));
+        return merged;
+    }
+    public SmartCartApp.Session session(String user) {
+        return sessions.computeIfAbsent(user, SmartCartApp.Session::new);
+    }
+    // the session is dropped under its cart's lock, so an add racing with this cannot land in the dropped
+    // cart after its holds are released
+    public void endSession(String user) {
+        SmartCartApp.Session session = sessions.get(user);
+        if (session == null) return;
+        SmartCartApp.Cart cart = session.getCart();
+        mutate(cart, () -> {
+            if (!sessions.remove(user, session)) return;
+            store.append("cart-clear", user);
+            releaseAll(cart);
+            audit.record(AuditLog.Type.CART_CLEAR, user, null, 0);
+        });
+    }
+    // carted and reserved units are held against stock until checkout commits them or they are released
+    public boolean addToCart(String user, SmartCartApp.Product p) {
+        long start = cartAddTime.start();
+        if (!stock.hold(p.getId(), 1)) {
+            outOfStock.increment();
+            return false;
+        }
+        try {
+            // a cart whose session ended while this waited for its lock is not added to; the add goes to
+            // the user's new session instead
+            while (true) {
+                SmartCartApp.Session session = session(user);
+                SmartCartApp.Cart cart = session.getCart();
+                if (mutateAndGet(cart, () -> {
+                    if (sessions.get(user) != session) return false;
+                    store.append("cart-add", user, p.getId());
+                    cart.add(p);
+                    return true;
+                })) break;
+            }
+        } catch (RuntimeException e) {
+            stock.release(p.getId(), 1);
+            throw e;
+        }
+        audit.record(AuditLog.Type.CART_ADD, user, p.getId(), 1);
+        cartAddTime.stop(start);
+        return true;
+    }
+    public void removeFromCart(String user, String id) {
+        long start = cartRemoveTime.start();
+        SmartCartApp.Cart cart = session(user).getCart();
+        mutate(cart, () -> {
+            store.append("cart-remove", user, id);
+            SmartCartApp.Cart.Line line = cart.remove(id);
+            release(line);
+            if (line != null) audit.record(AuditLog.Type.CART_REMOVE, user, id, line.quantity);
+        });
+        cartRemoveTime.stop(start);
+    }
+    public void clearCart(String user) {
+        SmartCartApp.Cart cart = session(user).getCart();
+        mutate(cart, () -> {
+            store.append("cart-clear", user);
+            releaseAll(cart);
+            audit.record(AuditLog.Type.CART_CLEAR, user, null, 0);
+        });
+    }
+    // the checkout record carries the order, so an order that never reached the history before a crash
+    // is rebuilt from it on the next start
+    java.util.List<SmartCartApp.Cart.Line> takeCart(OrderService.CheckoutRequest request, String orderId,
+                                                    LocalDateTime placedAt, long feeFils) {
+        String user = request.user;
+        SmartCartApp.Cart cart = session(user).getCart();
+        return mutateAndGet(cart, () -> {
+            java.util.List<SmartCartApp.Cart.Line> lines = cart.lines();
+            if (lines.isEmpty()) return lines;
+            String[] order = orderRecord(orderId, user, placedAt.toString(), request.payment.name(), feeFils,
+                    request.idempotencyKey, lines);
+            // an order too big for the history fails here, before any stock is committed
+            LogStore.check(order);
+            store.append("cart-checkout", user, orderId, placedAt.toString(), request.payment.name(),
+                    Long.toString(feeFils), request.idempotencyKey);
+            unrecorded.put(orderId, order);
+            commitAll(cart);
+            long total = 0;
+            for (SmartCartApp.Cart.Line line : lines) total += line.subtotalFils();
+            audit.record(AuditLog.Type.CHECKOUT, user, null, total);
+            return lines;
+        });
+    }
+    private void repriceCarts(Collection<SmartCartApp.Product> products) {
+        if (sessions.isEmpty()) return;
+        Map<String, SmartCartApp.Product> byId = new HashMap<>(products.size() * 2);
+        for (SmartCartApp.Product p : products) byId.put(p.getId(), p);
+        for (SmartCartApp.Session s : sessions.values()) s.getCart().reprice(byId);
+    }
+    private void release(SmartCartApp.Cart.Line line) {
+        if (line != null) stock.release(line.product.getId(), line.quantity);
+    }
+    private void releaseAll(SmartCartApp.Cart cart) {
+        for (SmartCartApp.Cart.Line line : cart.lines()) release(line);
+        cart.clear();
+    }
+    private void commitAll(SmartCartApp.Cart cart) {
+        for (SmartCartApp.Cart.Line line : cart.lines()) stock.commit(line.product.getId(), line.quantity);
+        cart.clear();
+    }
+    public OrderService getOrderService() { return orders; }
+    public boolean userExists(String username) { return users.exists(username); }
+    public CompletableFuture<Boolean> login(String username, String password) {
+        long start = System.nanoTime();
+        return users.verify(username, password).thenApply(ok -> {
+            loginTime.since(start);
+            audit.record(ok ? AuditLog.Type.LOGIN : AuditLog.Type.LOGIN_FAILED, username, null, 0);
+            return ok;
+        });
+    }
+    public CompletableFuture<Boolean> register(String username, String password) {
+        return users.hashAsync(username, password).thenApply(user -> {
+            boolean added = addUser(user);
+            if (added) {
+                awaitDurable();
+                audit.record(AuditLog.Type.REGISTER, username, null, 0);
+            }
+            return added;
+        });
+    }
+    AuditLog getAudit() { return audit; }
+    SalesAnalytics getSales() { return sales; }
+    // moves an order taken by takeCart into the order history
+    void recordOrder(OrderService.Order order) {
+        // the checkout that committed the stock is durable before the order that refers to it
+        awaitDurable();
+        synchronized (sales) {
+            orderLog.append(unrecorded.get(order.id));
+            sales.add(order);
+        }
+        try {
+            orderLog.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not save order " + order.id, e);
+        }
+        unrecorded.remove(order.id);
+    }
+    // the idempotency key trails the lines so history written before it was kept still reads
+    private static String[] orderRecord(String id, String user, String placedAt, String payment, long feeFils,
+                                        String key, java.util.List<SmartCartApp.Cart.Line> lines) {
+        java.util.List<String> record = new ArrayList<>(7 + lines.size() * 4);
+        Collections.addAll(record, "order", id, user, placedAt, payment, Long.toString(feeFils));
+        for (SmartCartApp.Cart.Line line : lines) {
+            Collections.addAll(record, line.product.getId(), line.product.getCategory(), Integer.toString(line.quantity),
+                    Long.toString(line.subtotalFils()));
+        }
+        record.add(key);
+        return record.toArray(new String[0]);
+    }
+    private boolean addUser(UserStore.UserRecord user) {
+        return mutateAndGet(this, () -> {
+            if (users.exists(user.username)) return false;
+            store.append(user.toRecord());
+            users.add(user);
+            return true;
+        });
+    }
+    public int countReservations(String user, SmartCartApp.Reservation.Status status) {
+        return reservations.count(user, status);
+    }
+    public java.util.List<SmartCartApp.Reservation> getReservations(String user, SmartCartApp.Reservation.Status status,
+                                                                    int offset, int limit) {
+        return reservations.page(user, status, offset, limit);
+    }
+    public boolean addReservation(String user, SmartCartApp.Reservation r) {
+        if (!stock.hold(r.product.getId(), 1)) return false;
+        try {
+            mutate(this, () -> {
+                r.id = nextReservationId++;
+                r.user = user;
+                store.append(reservationRecord(r));
+                reservations.add(r);
+                scheduler.track(r);
+            });
+        } catch (RuntimeException e) {
+            stock.release(r.product.getId(), 1);
+            throw e;
+        }
+        awaitDurable();
+        audit.record(AuditLog.Type.RESERVE, user, Long.toString(r.id), Math.round(r.fee * 100.0));
+        return true;
+    }
+    public double cancelReservation(SmartCartApp.Reservation r) {
+        double granted = mutateAndGet(this, () -> {
+            requireActive(r);
+            LocalDate today = LocalDate.now();
+            double refund = SmartCartApp.Reservation.refund(r.fee, r.plannedPurchaseDate, today);
+            store.append("cancel", Long.toString(r.id), Double.toString(refund), today.toString());
+            stock.release(r.product.getId(), 1);
+            reservations.setStatus(r, SmartCartApp.Reservation.Status.CANCELLED);
+            r.refund = refund;
+            r.refundDate = today;
+            audit.record(AuditLog.Type.CANCEL, r.user, Long.toString(r.id), Math.round(refund * 100.0));
+            return refund;
+        });
+        awaitDurable();
+        return granted;
+    }
+    boolean expireReservation(SmartCartApp.Reservation r, LocalDate today) {
+        return mutateAndGet(this, () -> {
+            if (r.status != SmartCartApp.Reservation.Status.ACTIVE || !r.plannedPurchaseDate.isBefore(today)) return false;
+            double refund = SmartCartApp.Reservation.refund(r.fee, r.plannedPurchaseDate, today);
+            store.append("expire", Long.toString(r.id), Double.toString(refund), today.toString());
+            stock.release(r.product.getId(), 1);
+            reservations.setStatus(r, SmartCartApp.Reservation.Status.EXPIRED);
+            r.refund = refund;
+            r.refundDate = today;
+            audit.record(AuditLog.Type.EXPIRE, r.user, Long.toString(r.id), Math.round(refund * 100.0));
+            return true;
+        });
+    }
+    public void purchaseReservation(String user, SmartCartApp.Reservation r) {
+        mutate(this, () -> {
+            requireActive(r);
+            // as in addToCart, a cart whose session has ended is passed over for the user's new one
+            while (true) {
+                SmartCartApp.Session session = session(user);
+                SmartCartApp.Cart cart = session.getCart();
+                synchronized (cart) {
+                    if (sessions.get(user) != session) continue;
+                    store.append("purchase", Long.toString(r.id), LocalDate.now().toString(), user);
+                    // the reserved unit stays on hold and moves into the cart at today's price
+                    cart.add(findProduct(r.product.getId()));
+                    break;
+                }
+            }
+            reservations.setStatus(r, SmartCartApp.Reservation.Status.PURCHASED);
+            r.purchaseDate = LocalDate.now();
+            audit.record(AuditLog.Type.PURCHASE, user, Long.toString(r.id), findProduct(r.product.getId()).getPriceFils());
+        });
+        awaitDurable();
+    }
+    public SmartCartApp.Reservation findReservation(long id) { return reservations.get(id); }
+    public ReservationScheduler getScheduler() { return scheduler; }
+    // totals the fees charged and refunds granted as recorded; refunds recorded without a date are left out
+    public FeeEngine.Report feeReport() {
+        FeeEngine.Batch batch = new FeeEngine.Batch();
+        synchronized (this) {
+            for (SmartCartApp.Reservation r : reservations.all()) {
+                batch.add(Math.round(r.fee * 100.0), Math.round(r.refund * 100.0), r.product.getCategory(),
+                        r.reservationDate, r.refundDate);
+            }
+        }
+        return FeeEngine.compute(batch);
+    }
+
+    private static void requireActive(SmartCartApp.Reservation r) {
+        if (r.status != SmartCartApp.Reservation.Status.ACTIVE) {
+            throw new IllegalStateException("Reservation " + r.id + " is " + r.status);
+        }
+    }
+
+    // Registrations, reservation changes and orders are acknowledged to the user, so they wait for the
+    // log writer's next fsync; callers arriving meanwhile share it. Cart edits and stock changes do not
+    // wait and can lose the last unsynced batch (a few milliseconds) in a crash.
+    private void awaitDurable() {
+        try {
+            store.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not save SmartCart data", e);
+        }
+    }
+
+    // mutations share the read lock and serialize on their own monitor; compaction takes the write lock
+    // so a snapshot never interleaves with a half-applied change
+    private void mutate(Object lock, Runnable change) {
+        mutateAndGet(lock, () -> { change.run(); return null; });
+    }
+
+    private <T> T mutateAndGet(Object lock, Supplier<T> change) {
+        stateLock.readLock().lock();
+        try {
+            synchronized (lock) { return change.get(); }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    public void compact() throws IOException {
+        stateLock.writeLock().lock();
+        try {
+            store.snapshot(state());
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    public void close() throws IOException {
+        scheduler.close();
+        if (compactor != null) compactor.shutdownNow();
+        try {
+            compact();
+        } finally {
+            try {
+                store.close();
+            } finally {
+                try {
+                    orderLog.close();
+                } finally {
+                    audit.close();
+                }
+            }
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (store.logSize() < COMPACT_LOG_BYTES) return;
+        try {
+            compact();
+        } catch (IOException e) {
+            System.err.println("SmartCart: snapshot failed: " + e.getMessage());
+        }
+    }
+
+    private java.util.List<String[]> state() {
+        java.util.List<String[]> records = new ArrayList<>();
+        for (SmartCartApp.Product p : catalog.all()) {
+            records.add(new String[] { "product", p.getId(), p.getCategory(), p.getName(), Double.toString(p.getPrice()) });
+        }
+        // on-hand counts precede the reservation and cart records that re-take their holds on replay
+        stock.forEach((id, onHand) -> records.add(new String[] { "stock", id, Integer.toString(onHand) }));
+        for (UserStore.UserRecord u : users.all()) records.add(u.toRecord());
+        for (SmartCartApp.Reservation r : reservations.all()) {
+            records.add(reservationRecord(r));
+            if (r.status == SmartCartApp.Reservation.Status.CANCELLED) {
+                records.add(refundRecord("cancel", r));
+            } else if (r.status == SmartCartApp.Reservation.Status.EXPIRED) {
+                records.add(refundRecord("expire", r));
+            } else if (r.status == SmartCartApp.Reservation.Status.PURCHASED) {
+                records.add(new String[] { "purchase", Long.toString(r.id), r.purchaseDate.toString() });
+            }
+        }
+        for (SmartCartApp.Session s : sessions.values()) {
+            for (SmartCartApp.Cart.Line line : s.getCart().lines()) {
+                records.add(new String[] { "cart-add", s.getUser(), line.product.getId(), Integer.toString(line.quantity) });
+            }
+        }
+        // an order still on its way to the history outlives the checkout record that carried it
+        records.addAll(unrecorded.values());
+        return records;
+    }
+
+    private static String[] reservationRecord(SmartCartApp.Reservation r) {
+        return new String[] { "reservation", Long.toString(r.id), r.product.getId(), r.reservationDate.toString(),
+                r.plannedPurchaseDate.toString(), Double.toString(r.fee), r.user };
+    }
+
+    private static String[] refundRecord(String type, SmartCartApp.Reservation r) {
+        return r.refundDate == null
+                ? new String[] { type, Long.toString(r.id), Double.toString(r.refund) }
+                : new String[] { type, Long.toString(r.id), Double.toString(r.refund), r.refundDate.toString() };
+    }
+
+    private void publishReplayed() {
+        if (replayed.isEmpty()) return;
+        catalog.addAll(replayed);
+        repriceCarts(replayed);
+        replayed.clear();
+    }
+
+    private void applyOrder(String[] record) {
+        unrecorded.remove(record[1]);
+        LocalDateTime placedAt = LocalDateTime.parse(record[3]);
+        int day = (int) placedAt.toLocalDate().toEpochDay();
+        OrderService.PaymentMethod payment = OrderService.PaymentMethod.valueOf(record[4]);
+        long fee = Long.parseLong(record[5]), subtotal = 0;
+        for (int i = 6; i + 3 < record.length; i += 4) {
+            long amount = Long.parseLong(record[i + 3]);
+            sales.add(day, record[i], record[i + 1], Integer.parseInt(record[i + 2]), amount, payment.ordinal());
+            subtotal += amount;
+        }
+        sales.addOrder(payment, fee);
+        // records written before the key was kept have no trailing field
+        String key = (record.length - 6) % 4 == 1 ? record[record.length - 1] : null;
+        orders.restored(record[1], key, record[2], payment, subtotal, fee, placedAt);
+    }
+
+    // a crash between a checkout and its order record leaves the order only in the state log
+    private void recoverOrders() throws IOException {
+        if (unrecorded.isEmpty()) return;
+        for (String[] record : new ArrayList<>(unrecorded.values())) {
+            orderLog.append(record);
+            applyOrder(record);
+        }
+        orderLog.flush();
+    }
+
+    private void apply(String[] record) {
+        // each catalog swap copies a segment, so replayed products are published in batches; anything
+        // else may refer to them and publishes the pending ones first
+        if (record[0].equals("product")) {
+            replayed.add(newProduct(record[1], record[2], record[3], Double.parseDouble(record[4])));
+            if (replayed.size() >= REPLAY_BATCH) publishReplayed();
+            return;
+        }
+        publishReplayed();
+        switch (record[0]) {
+            case "stock": stock.setOnHand(record[1], Integer.parseInt(record[2])); break;
+            case "user":
+                // plaintext records from older data files are hashed on load and rewritten at the next snapshot
+                users.add(record.length == 3
+                        ? users.hash(record[1], record[2], UserStore.DEFAULT_ITERATIONS)
+                        : UserStore.UserRecord.fromRecord(record));
+                break;
+            case "reservation": {
+                SmartCartApp.Reservation r = new SmartCartApp.Reservation(findProduct(record[2]),
+                        LocalDate.parse(record[3]), LocalDate.parse(record[4]), Double.parseDouble(record[5]));
+                r.id = Long.parseLong(record[1]);
+                // reservations recorded before they had an owner stay shared
+                if (record.length > 6) r.user = record[6];
+                nextReservationId = Math.max(nextReservationId, r.id + 1);
+                reservations.add(r);
+                scheduler.track(r);
+                stock.hold(r.product.getId(), 1);
+                break;
+            }
+            case "cancel":
+            case "expire": {
+                SmartCartApp.Reservation r = reservations.get(Long.parseLong(record[1]));
+                stock.release(r.product.getId(), 1);
+                reservations.setStatus(r, record[0].equals("cancel")
+                        ? SmartCartApp.Reservation.Status.CANCELLED : SmartCartApp.Reservation.Status.EXPIRED);
+                r.refund = record.length > 2 ? Double.parseDouble(record[2]) : 0.0;
+                if (record.length > 3) r.refundDate = LocalDate.parse(record[3]);
+                break;
+            }
+            case "purchase": {
+                SmartCartApp.Reservation r = reservations.get(Long.parseLong(record[1]));
+                // a logged purchase moves the held unit into the buyer's cart; a snapshot's purchase has no
+                // buyer, and the unit is either sold or re-held by that cart's own cart-add record
+                if (record.length > 3) {
+                    session(record[3]).getCart().add(findProduct(r.product.getId()));
+                } else {
+                    stock.release(r.product.getId(), 1);
+                }
+                reservations.setStatus(r, SmartCartApp.Reservation.Status.PURCHASED);
+                r.purchaseDate = LocalDate.parse(record[2]);
+                break;
+            }
+            // cart records written before per-user sessions carry no user and are dropped
+            case "cart-add":
+                if (record.length >= 3) {
+                    int quantity = record.length > 3 ? Integer.parseInt(record[3]) : 1;
+                    session(record[1]).getCart().add(findProduct(record[2]), quantity);
+                    stock.hold(record[2], quantity);
+                }
+                break;
+            case "cart-remove": if (record.length == 3) release(session(record[1]).getCart().remove(record[2])); break;
+            case "cart-clear": if (record.length == 2) releaseAll(session(record[1]).getCart()); break;
+            case "cart-checkout": {
+                SmartCartApp.Cart cart = session(record[1]).getCart();
+                // checkouts logged before they carried the order only commit the stock
+                if (record.length > 2) {
+                    unrecorded.put(record[2], orderRecord(record[2], record[1], record[3], record[4],
+                            Long.parseLong(record[5]), record[6], cart.lines()));
+                }
+                commitAll(cart);
+                break;
+            }
+            case "order": unrecorded.put(record[1], record); break;
+            default: throw new IllegalStateException("Unknown SmartCart record: " + record[0]);
+        }
+    }
+
+    static SmartCartApp.Product newProduct(String id, String category, String name, double price) {
+        switch (category) {
+            case "Electronics": return new SmartCartApp.Electronics(id, name, price);
+            case "Clothing": return new SmartCartApp.Clothing(id, name, price);
+            default: throw new IllegalArgumentException("Unknown category: " + category);
+        }
+    }
+}
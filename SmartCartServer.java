@@ -0,0 +1,636 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// JSON over HTTP for kiosks and web front ends, sharing one SmartCartManager with everything else in
+// the process. Each exchange runs on its own thread from Threads.perTask (virtual threads on JDK 21+),
+// so handlers simply block on the manager. Request parameters come from the query string or an
+// application/x-www-form-urlencoded body; sessions are bearer tokens from POST /api/login.
+//
+//   GET  /api/products?category=&maxPrice=&offset=&limit=   GET /api/search?q=&category=&maxPrice=&limit=
+//   POST /api/login (user, password)   POST /api/logout
+//   GET  /api/cart   POST /api/cart/add (id)   POST /api/cart/remove (id)
+//   GET  /api/reservations?status=&offset=&limit=   POST /api/reservations (id, planned)
+//   POST /api/reservations/cancel (id)   POST /api/reservations/purchase (id)
+//   POST /api/checkout (key, name, address, phone, payment=COD|CARD|UPI, card, expiry, cvv, upi)
+//   GET  /api/sales?by=day|category|product|payment&from=&to=&category=&payment=   (admin only)
+//   GET  /api/sales/daily?from=&to=   (admin only; both reports default to the last 30 days)
+//   GET  /metrics
+final class SmartCartServer {
+
+    private static final int MAX_PAGE = 10_000;
+    private static final int MAX_BODY = 64 * 1024;
+    private static final long SESSION_IDLE_NANOS = TimeUnit.MINUTES.toNanos(30);
+    private static final int SALES_DAYS = 30;
+
+    private static final class Token {
+        final String user;
+        volatile long lastSeen = System.nanoTime();
+
+        Token(String user) { this.user = user; }
+    }
+
+    // a failed request: the status code and a message for the client
+    private static final class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message, null, false, false);
+            this.status = status;
+        }
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange, Map<String, String> params) throws IOException, HttpError;
+    }
+
+    private final SmartCartManager manager;
+    private final HttpServer http;
+    private final ExecutorService workers = Threads.perTask("smartcart-http");
+    private final ScheduledExecutorService sweeper =
+            Executors.newSingleThreadScheduledExecutor(Threads.daemon("smartcart-http-sweeper"));
+    private final ConcurrentHashMap<String, Token> tokens = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Handler>> routes = new HashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final Metrics.Histogram requestTime = Metrics.get().histogram("http.request");
+    private final Metrics.Counter errors = Metrics.get().counter("http.errors");
+
+    private SmartCartServer(SmartCartManager manager, InetSocketAddress address, int backlog) throws IOException {
+        this.manager = manager;
+        this.http = HttpServer.create(address, backlog);
+        http.setExecutor(workers);
+        route("GET", "/api/products", this::products);
+        route("GET", "/api/search", this::search);
+        route("POST", "/api/login", this::login);
+        route("POST", "/api/logout", this::logout);
+        route("GET", "/api/cart", this::cart);
+        route("POST", "/api/cart/add", this::cartAdd);
+        route("POST", "/api/cart/remove", this::cartRemove);
+        route("GET", "/api/reservations", this::reservations);
+        route("POST", "/api/reservations", this::reserve);
+        route("POST", "/api/reservations/cancel", this::cancelReservation);
+        route("POST", "/api/reservations/purchase", this::purchaseReservation);
+        route("POST", "/api/checkout", this::checkout);
+        route("GET", "/api/sales", this::sales);
+        route("GET", "/api/sales/daily", this::salesDaily);
+        route("GET", "/metrics", (ex, p) -> {
+            byte[] body = Metrics.get().dump().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream out = ex.getResponseBody()) { out.write(body); }
+        });
+    }
+
+    static SmartCartServer start(SmartCartManager manager, InetSocketAddress address) throws IOException {
+        // headers and body leave in separate writes, so with Nagle on each response waits out the client's
+        // delayed ACK; and the default cap of 200 idle keep-alive connections makes busy clients reconnect
+        defaultProperty("sun.net.httpserver.nodelay", "true");
+        defaultProperty("sun.net.httpserver.maxIdleConnections", "20000");
+        SmartCartServer server = new SmartCartServer(manager, address, 4096);
+        server.http.start();
+        server.sweeper.scheduleWithFixedDelay(server::sweep, 1, 1, TimeUnit.MINUTES);
+        return server;
+    }
+
+    private static void defaultProperty(String name, String value) {
+        if (System.getProperty(name) == null) System.setProperty(name, value);
+    }
+
+    int port() { return http.getAddress().getPort(); }
+
+    void stop() {
+        sweeper.shutdownNow();
+        http.stop(1);
+        workers.shutdown();
+    }
+
+    // one context per path, dispatching on the method, since the server keeps a single handler per path
+    private void route(String method, String path, Handler handler) {
+        Map<String, Handler> byMethod = routes.get(path);
+        if (byMethod != null) {
+            byMethod.put(method, handler);
+            return;
+        }
+        byMethod = new HashMap<>();
+        byMethod.put(method, handler);
+        routes.put(path, byMethod);
+        Map<String, Handler> methods = byMethod;
+        http.createContext(path, exchange -> {
+            long start = System.nanoTime();
+            try {
+                // contexts match by prefix; only the exact path belongs to this handler
+                if (!exchange.getRequestURI().getPath().equals(path)) throw new HttpError(404, "Not found");
+                Handler h = methods.get(exchange.getRequestMethod());
+                if (h == null) throw new HttpError(405, "Use " + String.join(" or ", methods.keySet()));
+                h.handle(exchange, params(exchange));
+            } catch (HttpError e) {
+                fail(exchange, e.status, e.getMessage());
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                fail(exchange, 400, e.getMessage());
+            } catch (IOException e) {
+                // the client went away mid-response; nothing left to tell it
+                errors.increment();
+            } catch (RuntimeException e) {
+                fail(exchange, 500, "Internal error");
+                System.err.println("SmartCart HTTP: " + path + " failed: " + e);
+            } finally {
+                exchange.close();
+                requestTime.since(start);
+            }
+        });
+    }
+
+    // --- catalog -------------------------------------------------------------------------------
+
+    private void products(HttpExchange ex, Map<String, String> p) throws IOException, HttpError {
+        String category = p.getOrDefault("category", "Electronics");
+        List<SmartCartApp.Product> all = manager.getProducts(category, decimal(p, "maxPrice", Double.MAX_VALUE));
+        int offset = Math.min(integer(p, "offset", 0), all.size());
+        int limit = Math.min(integer(p, "limit", 100), MAX_PAGE);
+        List<SmartCartApp.Product> page = all.subList(offset, Math.min(all.size(), offset + limit));
+        try (Json json = Json.stream(ex, 200)) {
+            json.raw("{\"total\":").number(all.size()).raw(",\"offset\":").number(offset).raw(",\"items\":");
+            productArray(json, page);
+            json.raw("}");
+        }
+    }
+
+    private void search(HttpExchange ex, Map<String, String> p) throws IOException, HttpError {
+        String q = required(p, "q");
+        List<SmartCartApp.Product> hits = manager.search(q, p.get("category"), decimal(p, "maxPrice", Double.MAX_VALUE),
+                Math.min(integer(p, "limit", 50), MAX_PAGE));
+        try (Json json = Json.stream(ex, 200)) {
+            json.raw("{\"items\":");
+            productArray(json, hits);
+            json.raw("}");
+        }
+    }
+
+    // the list is usually a lazy view over the catalog, so rows are encoded one at a time straight
+    // into the response buffer instead of materializing the page first
+    private void productArray(Json json, List<SmartCartApp.Product> products) throws IOException {
+        json.raw("[");
+        boolean first = true;
+        for (SmartCartApp.Product product : products) {
+            if (!first) json.raw(",");
+            first = false;
+            json.raw("{\"id\":").string(product.getId())
+                .raw(",\"category\":").string(product.getCategory())
+                .raw(",\"name\":").string(product.getName())
+                .raw(",\"priceFils\":").number(product.getPriceFils())
+                .raw(",\"available\":").number(Math.min(manager.availableStock(product.getId()), Integer.MAX_VALUE))
+                .raw("}");
+        }
+        json.raw("]");
+    }
+
+    // --- sessions ------------------------------------------------------------------------------
+
+    private void login(HttpExchange ex, Map<String, String> p) throws IOException, HttpError {
+        String user = required(p, "user");
+        boolean ok;
+        try {
+            ok = manager.login(user, required(p, "password")).join();
+        } catch (CompletionException busy) {
+            throw new HttpError(503, "Login is busy, try again");
+        }
+        if (!ok) throw new HttpError(401, "Invalid credentials");
+        byte[] raw = new byte[24];
+        random.nextBytes(raw);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+        tokens.put(token, new Token(user));
+        try (Json json = Json.stream(ex, 200)) {
+            json.raw("{\"token\":").string(token).raw(",\"user\":").string(user).raw("}");
+        }
+    }
+
+    private void logout(HttpExchange ex, Map<String, String> p) throws IOException, HttpError {
+        String user = user(ex);
+        tokens.remove(bearer(ex));
+        endIfLast(user);
+        ok(ex);
+    }
+
+    // other tokens of the same user keep the shared cart alive
+    private void endIfLast(String user) {
+        if (tokens.values().stream().noneMatch(t -> t.user.equals(user))) manager.endSession(user);
+    }
+
+    // tokens nobody comes back for end their sessions too, so abandoned carts release the stock they hold
+    private void sweep() {
+        long now = System.nanoTime();
+        try {
+            for (Map.Entry<String, Token> e : tokens.entrySet()) {
+                Token token = e.getValue();
+                if (now - token.lastSeen > SESSION_IDLE_NANOS && tokens.remove(e.getKey(), token)) endIfLast(token.user);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("SmartCart HTTP: session sweep failed: " + e);
+        }
+    }
+
+    private String user(HttpExchange ex) throws HttpError {
+        String bearer = bearer(ex);
+        Token token = bearer == null ? null : tokens.get(bearer);
+        long now = System.nanoTime();
+        if (token == null || now - token.lastSeen > SESSION_IDLE_NANOS) {
+            if (token != null && tokens.remove(bearer, token)) endIfLast(token.user);
+            throw new HttpError(401, "Log in first");
+        }
+        token.lastSeen = now;
+        return token.user;
+    }
+
+    private static String bearer(HttpExchange ex) {
+        String auth = ex.getRequestHeaders().getFirst("Authorization");
+        return auth != null && auth.startsWith("Bearer ") ? auth.substring(7).trim() : null;
+    }
+
+    // --- cart and checkout ---------------------------------------------------------------------
+
+    private void cart(HttpExchange ex, Map<String, String> p) throws IOException, HttpError {
+        SmartCartApp.Cart cart = manager.session(user(ex)).getCart();
+        List<SmartCartApp.Cart.Line> lines = cart.lines();
+        long total = 0;
+        try (Json json = Json.stream(ex, 200)) {
+            json.raw("{\"lines\":[");
+            for (int i = 0; i < lines.size(); i++) {
+                SmartCartApp.Cart.Line line = lines.get(i);
+                total += line.subtotalFils();
+                json.raw(i == 0 ? "{\"id\":" : ",{\"id\":").string(line.product.getId())
+                    .raw(",\"name\":").string(line.product.getName())
+                    .raw(",\"quantity\":").number(line.quantity)
+                    .raw(",\"subtotalFils\":").number(line.subtotalFils()).raw("}");
+            }
+            json.raw("],\"totalFils\":").number(total).raw("}");
+        }
+    }
+
+    private void cartAdd(HttpExchange ex, Map<String, String> p) throws IOException, HttpError {
+        String user = user(ex);
+        SmartCartApp.Product product = product(required(p, "id"));
+        if (!manager.addToCart(user, product)) throw new HttpError(409, product.getName() + " is out of stock");
+        ok(ex);
+    }
+
+    private void cartRemove(HttpExchange ex, Map<String, String> p) throws IOException, HttpError {
+        manager.removeFromCart(user(ex), required(p, "id"));
+        ok(ex);
+    }
+
+    private void checkout(HttpExchange ex, Map<String, String> p) throws IOException, HttpError {
+        String user = user(ex);
+        OrderService.PaymentMethod payment = payment(p.getOrDefault("payment", ""));
+        OrderService.CheckoutRequest request = new OrderService.CheckoutRequest(user, required(p, "key"),
+                p.getOrDefault("name", ""), p.getOrDefault("address", ""), p.getOrDefault("phone", ""), payment);
+        request.cardNumber = p.getOrDefault("card", "");
+        request.cardExpiry = p.getOrDefault("expiry", "");
+        request.cardCvv = p.getOrDefault("cvv", "");
+        request.upiId = p.getOrDefault("upi", "");
+        OrderService.Order order;
+        try {
+            order = manager.getOrderService().place(request);
+        } catch (OrderService.CheckoutException e) {
+            throw new HttpError(422, e.getMessage());
+        }
+        try (Json json = Json.stream(ex, 201)) {
+            json.raw("{\"order\":").string(order.id)
+                .raw(",\"subtotalFils\":").number(order.subtotalFils)
+                .raw(",\"feeFils\":").number(order.feeFils)
+                .raw(",\"totalFils\":").number(order.totalFils()).raw("}");
+        }
+    }
+
+    private static OrderService.PaymentMethod payment(String code) throws HttpError {
+        try {
+            return OrderService.PaymentMethod.fromCode(code);
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(400, "payment must be COD, CARD or UPI");
+        }
+    }
+
+    // --- sales reports -------------------------------------------------------------------------
+
+    private void sales(HttpExchange ex, Map<String, String> p) throws IOException, HttpError {
+        admin(ex);
+        SalesAnalytics.Dimension by;
+        try {
+            by = SalesAnalytics.Dimension.valueOf(p.getOrDefault("by", "category").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(400, "by must be day, category, product or payment");
+        }
+        LocalDate to = date(p, "to", LocalDate.now()), from = date(p, "from", to.minusDays(SALES_DAYS - 1));
+        // a day report holds one group per day in the range
+        if (by == SalesAnalytics.Dimension.DAY && ChronoUnit.DAYS.between(from, to) >= MAX_PAGE) {
+            throw new HttpError(400, "A day report covers at most " + MAX_PAGE + " days");
+        }
+        OrderService.PaymentMethod payment = p.containsKey("payment") ? payment(p.get("payment")) : null;
+        List<SalesAnalytics.Row> rows = manager.getSales().query(by, from, to, p.get("category"), payment);
+        try (Json json = Json.stream(ex, 200)) {
+            json.raw("{\"from\":").string(from.toString()).raw(",\"to\":").string(to.toString()).raw(",\"rows\":[");
+            for (int i = 0; i < rows.size(); i++) {
+                SalesAnalytics.Row row = rows.get(i);
+                json.raw(i == 0 ? "{\"key\":" : ",{\"key\":").string(row.key)
+                    .raw(",\"units\":").number(row.units)
+                    .raw(",\"revenueFils\":").number(row.revenueFils).raw("}");
+            }
+            json.raw("]}");
+        }
+    }
+
+    private void salesDaily(HttpExchange ex, Map<String, String> p) throws IOException, HttpError {
+        admin(ex);
+        LocalDate to = date(p, "to", LocalDate.now()), from = date(p, "from", to.minusDays(SALES_DAYS - 1));
+        SortedMap<LocalDate, long[]> days = manager.getSales().revenueByCategoryPerDay(from, to);
+        try (Json json = Json.stream(ex, 200)) {
+            json.raw("{\"categories\":[");
+            for (int c = 0; c < ColumnarCatalog.CATEGORIES.length; c++) {
+                json.raw(c == 0 ? "" : ",").string(ColumnarCatalog.CATEGORIES[c]);
+            }
+            json.raw("],\"days\":[");
+            boolean first = true;
+            for (Map.Entry<LocalDate, long[]> e : days.entrySet()) {
+                json.raw(first ? "{\"day\":" : ",{\"day\":").string(e.getKey().toString()).raw(",\"revenueFils\":[");
+                first = false;
+                long[] revenue = e.getValue();
+                for (int c = 0; c < revenue.length; c++) json.raw(c == 0 ? "" : ",").number(revenue[c]);
+                json.raw("]}");
+            }
+            json.raw("]}");
+        }
+    }
+
+    private void admin(HttpExchange ex) throws HttpError {
+        if (!user(ex).equals(SmartCartManager.ADMIN)) throw new HttpError(403, "Sales reports are for the admin account");
+    }
+
+    // --- reservations --------------------------------------------------------------------------
+
+    private void reservations(HttpExchange ex, Map<String, String> p) throws IOException, HttpError {
+        String user = user(ex);
+        SmartCartApp.Reservation.Status status = p.containsKey("status")
+                ? SmartCartApp.Reservation.Status.valueOf(p.get("status").toUpperCase(Locale.ROOT)) : null;
+        int offset = integer(p, "offset", 0);
+        int total = manager.countReservations(user, status);
+        List<SmartCartApp.Reservation> page = manager.getReservations(user, status, offset,
+                Math.min(integer(p, "limit", 100), MAX_PAGE));
+        try (Json json = Json.stream(ex, 200)) {
+            json.raw("{\"total\":").number(total).raw(",\"offset\":").number(offset).raw(",\"items\":[");
+            for (int i = 0; i < page.size(); i++) {
+                if (i > 0) json.raw(",");
+                reservation(json, page.get(i));
+            }
+            json.raw("]}");
+        }
+    }
+
+    private void reserve(HttpExchange ex, Map<String, String> p) throws IOException, HttpError {
+        String user = user(ex);
+        SmartCartApp.Product product = product(required(p, "id"));
+        LocalDate today = LocalDate.now(), planned;
+        try {
+            planned = LocalDate.parse(required(p, "planned"));
+        } catch (DateTimeParseException e) {
+            throw new HttpError(400, "planned must be YYYY-MM-DD");
+        }
+        if (planned.isBefore(today)) throw new HttpError(400, "planned must be today or later");
+        SmartCartApp.Reservation r = new SmartCartApp.Reservation(product, today, planned,
+                SmartCartApp.Reservation.fee(product));
+        if (!manager.addReservation(user, r)) throw new HttpError(409, product.getName() + " is out of stock");
+        try (Json json = Json.stream(ex, 201)) {
+            reservation(json, r);
+        }
+    }
+
+    private void cancelReservation(HttpExchange ex, Map<String, String> p) throws IOException, HttpError {
+        SmartCartApp.Reservation r = ownReservation(user(ex), p);
+        double refund = manager.cancelReservation(r);
+        try (Json json = Json.stream(ex, 200)) {
+            json.raw("{\"refundFils\":").number(Math.round(refund * 100.0)).raw("}");
+        }
+    }
+
+    private void purchaseReservation(HttpExchange ex, Map<String, String> p) throws IOException, HttpError {
+        String user = user(ex);
+        manager.purchaseReservation(user, ownReservation(user, p));
+        ok(ex);
+    }
+
+    // only the owner or the admin account may cancel or purchase a reservation; shared ones, recorded
+    // before reservations had owners, are listed to everyone but belong to nobody
+    private SmartCartApp.Reservation ownReservation(String user, Map<String, String> p) throws HttpError {
+        SmartCartApp.Reservation r = manager.findReservation(integer(p, "id", -1));
+        if (r == null || !(r.user.equals(user) || user.equals(SmartCartManager.ADMIN))) {
+            throw new HttpError(404, "No such reservation");
+        }
+        return r;
+    }
+
+    private static void reservation(Json json, SmartCartApp.Reservation r) throws IOException {
+        json.raw("{\"id\":").number(r.id)
+            .raw(",\"status\":").string(r.status.name())
+            .raw(",\"product\":").string(r.product.getId())
+            .raw(",\"reserved\":").string(r.reservationDate.toString())
+            .raw(",\"planned\":").string(r.plannedPurchaseDate.toString())
+            .raw(",\"feeFils\":").number(Math.round(r.fee * 100.0)).raw("}");
+    }
+
+    // --- plumbing ------------------------------------------------------------------------------
+
+    private SmartCartApp.Product product(String id) throws HttpError {
+        SmartCartApp.Product product = manager.findProduct(id);
+        if (product == null) throw new HttpError(404, "No such product " + id);
+        return product;
+    }
+
+    private static void ok(HttpExchange ex) throws IOException {
+        try (Json json = Json.stream(ex, 200)) {
+            json.raw("{\"ok\":true}");
+        }
+    }
+
+    private void fail(HttpExchange ex, int status, String message) {
+        errors.increment();
+        try {
+            // headers may already be out if a stream failed halfway; then the connection just closes
+            if (ex.getResponseCode() != -1) return;
+            try (Json json = Json.stream(ex, status)) {
+                json.raw("{\"error\":").string(message == null ? "" : message).raw("}");
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static Map<String, String> params(HttpExchange ex) throws IOException, HttpError {
+        Map<String, String> params = new HashMap<>();
+        decode(ex.getRequestURI().getRawQuery(), params);
+        Headers headers = ex.getRequestHeaders();
+        String type = headers.getFirst("Content-Type");
+        if (type != null && type.startsWith("application/x-www-form-urlencoded")) {
+            try (InputStream in = ex.getRequestBody()) {
+                byte[] body = in.readNBytes(MAX_BODY + 1);
+                if (body.length > MAX_BODY) throw new HttpError(413, "Request body too large");
+                decode(new String(body, StandardCharsets.UTF_8), params);
+            }
+        }
+        return params;
+    }
+
+    private static void decode(String form, Map<String, String> into) {
+        if (form == null || form.isEmpty()) return;
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            into.put(key, eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String required(Map<String, String> p, String name) throws HttpError {
+        String v = p.get(name);
+        if (v == null || v.isEmpty()) throw new HttpError(400, "Missing parameter " + name);
+        return v;
+    }
+
+    private static LocalDate date(Map<String, String> p, String name, LocalDate fallback) throws HttpError {
+        String v = p.get(name);
+        if (v == null || v.isEmpty()) return fallback;
+        try {
+            return LocalDate.parse(v);
+        } catch (DateTimeParseException e) {
+            throw new HttpError(400, name + " must be YYYY-MM-DD");
+        }
+    }
+
+    private static int integer(Map<String, String> p, String name, int fallback) throws HttpError {
+        String v = p.get(name);
+        if (v == null || v.isEmpty()) return fallback;
+        try {
+            return Math.max(0, Integer.parseInt(v));
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, name + " must be a whole number");
+        }
+    }
+
+    private static double decimal(Map<String, String> p, String name, double fallback) throws HttpError {
+        String v = p.get(name);
+        if (v == null || v.isEmpty()) return fallback;
+        try {
+            return Double.parseDouble(v);
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, name + " must be a number");
+        }
+    }
+
+    // Writes JSON as UTF-8 into a fixed buffer that is flushed to the response body as it fills, so a
+    // response of any size costs one buffer. Small responses go out with a Content-Length; larger
+    // ones switch to chunked transfer once the first buffer fills.
+    static final class Json implements AutoCloseable {
+        private static final int BUFFER = 32 * 1024;
+        private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+        private final HttpExchange exchange;
+        private final int status;
+        private final byte[] buf = new byte[BUFFER];
+        private int pos;
+        private OutputStream out;
+
+        private Json(HttpExchange exchange, int status) {
+            this.exchange = exchange;
+            this.status = status;
+        }
+
+        static Json stream(HttpExchange exchange, int status) {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            return new Json(exchange, status);
+        }
+
+        Json raw(String ascii) throws IOException {
+            for (int i = 0; i < ascii.length(); i++) put((byte) ascii.charAt(i));
+            return this;
+        }
+
+        Json number(long n) throws IOException {
+            return raw(Long.toString(n));
+        }
+
+        Json string(String s) throws IOException {
+            put((byte) '"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    put((byte) '\\');
+                    put((byte) c);
+                } else if (c < 0x20) {
+                    put((byte) '\\'); put((byte) 'u'); put((byte) '0'); put((byte) '0');
+                    put(HEX[c >> 4]); put(HEX[c & 15]);
+                } else if (c < 0x80) {
+                    put((byte) c);
+                } else if (c < 0x800) {
+                    put((byte) (0xC0 | c >> 6));
+                    put((byte) (0x80 | c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    put((byte) (0xF0 | cp >> 18));
+                    put((byte) (0x80 | cp >> 12 & 0x3F));
+                    put((byte) (0x80 | cp >> 6 & 0x3F));
+                    put((byte) (0x80 | cp & 0x3F));
+                } else {
+                    put((byte) (0xE0 | c >> 12));
+                    put((byte) (0x80 | c >> 6 & 0x3F));
+                    put((byte) (0x80 | c & 0x3F));
+                }
+            }
+            put((byte) '"');
+            return this;
+        }
+
+        private void put(byte b) throws IOException {
+            if (pos == buf.length) drain();
+            buf[pos++] = b;
+        }
+
+        private void drain() throws IOException {
+            if (out == null) {
+                exchange.sendResponseHeaders(status, 0);
+                out = exchange.getResponseBody();
+            }
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out == null) {
+                exchange.sendResponseHeaders(status, pos);
+                out = exchange.getResponseBody();
+            }
+            out.write(buf, 0, pos);
+            pos = 0;
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+import java.io.IOException;
+import java.util.function.Consumer;
+
+interface SmartCartStore extends AutoCloseable {
+
+    SmartCartStore IN_MEMORY = new SmartCartStore() {
+        @Override public void append(String... record) { }
+        @Override public void flush() { }
+        @Override public void replay(Consumer<String[]> sink) { }
+        @Override public void snapshot(Iterable<String[]> state) { }
+        @Override public long logSize() { return 0; }
+        @Override public void close() { }
+    };
+
+    // queues a record; it is durable once a later flush() returns
+    void append(String... record);
+
+    // waits until every record appended so far is on disk
+    void flush() throws IOException;
+
+    void replay(Consumer<String[]> sink) throws IOException;
+
+    void snapshot(Iterable<String[]> state) throws IOException;
+
+    long logSize();
+
+    @Override void close() throws IOException;
+}
@@ -0,0 +1,107 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ObjIntConsumer;
+
+// Per-SKU stock counters. Each slot packs available units (high 32 bits) and held units (low 32 bits)
+// into one long so a hold moves units from available to held with a single CAS. Products that never
+// had stock set are untracked and always available.
+final class StockLedger {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+
+    private final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<>();
+    // slots live in fixed-size chunks so growing the ledger never copies live counters
+    private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+    private int nextSlot;
+
+    boolean tracked(String id) { return slots.containsKey(id); }
+
+    int available(String id) {
+        Integer slot = slots.get(id);
+        return slot == null ? Integer.MAX_VALUE : available(get(slot));
+    }
+
+    int held(String id) {
+        Integer slot = slots.get(id);
+        return slot == null ? 0 : held(get(slot));
+    }
+
+    void setOnHand(String id, int onHand) {
+        if (onHand < 0) throw new IllegalArgumentException("Stock cannot be negative: " + onHand);
+        int slot = slotFor(id);
+        AtomicLongArray chunk = chunk(slot);
+        int i = slot & (CHUNK - 1);
+        while (true) {
+            long s = chunk.get(i);
+            if (onHand < held(s)) {
+                throw new IllegalArgumentException(id + " has " + held(s) + " units on hold, cannot set stock to " + onHand);
+            }
+            if (chunk.compareAndSet(i, s, pack(onHand - held(s), held(s)))) return;
+        }
+    }
+
+    boolean hold(String id, int units) {
+        Integer slot = slots.get(id);
+        if (slot == null) return true;
+        AtomicLongArray chunk = chunk(slot);
+        int i = slot & (CHUNK - 1);
+        while (true) {
+            long s = chunk.get(i);
+            if (available(s) < units) return false;
+            if (chunk.compareAndSet(i, s, pack(available(s) - units, held(s) + units))) return true;
+        }
+    }
+
+    void release(String id, int units) { move(id, units, units); }
+
+    // held units leave the shop: they stop being held and do not return to available
+    void commit(String id, int units) { move(id, units, 0); }
+
+    void forEach(ObjIntConsumer<String> onHand) {
+        slots.forEach((id, slot) -> {
+            long s = get(slot);
+            onHand.accept(id, available(s) + held(s));
+        });
+    }
+
+    private void move(String id, int units, int toAvailable) {
+        Integer slot = slots.get(id);
+        if (slot == null) return;
+        AtomicLongArray chunk = chunk(slot);
+        int i = slot & (CHUNK - 1);
+        while (true) {
+            long s = chunk.get(i);
+            if (held(s) < units) throw new IllegalStateException(id + " has only " + held(s) + " units on hold");
+            if (chunk.compareAndSet(i, s, pack(available(s) + toAvailable, held(s) - units))) return;
+        }
+    }
+
+    private int slotFor(String id) {
+        Integer slot = slots.get(id);
+        if (slot != null) return slot;
+        synchronized (this) {
+            slot = slots.get(id);
+            if (slot != null) return slot;
+            int next = nextSlot++;
+            if ((next >>> CHUNK_BITS) == chunks.length) {
+                AtomicLongArray[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+                grown[chunks.length] = new AtomicLongArray(CHUNK);
+                chunks = grown;
+            }
+            slots.put(id, next);
+            return next;
+        }
+    }
+
+    private long get(int slot) { return chunk(slot).get(slot & (CHUNK - 1)); }
+
+    private AtomicLongArray chunk(int slot) { return chunks[slot >>> CHUNK_BITS]; }
+
+    private static long pack(int available, int held) { return ((long) available << 32) | (held & 0xFFFFFFFFL); }
+
+    private static int available(long state) { return (int) (state >>> 32); }
+
+    private static int held(long state) { return (int) state; }
+}
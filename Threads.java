@@ -0,0 +1,29 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class Threads {
+
+    private Threads() { }
+
+    static ThreadFactory daemon(String name) {
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // virtual thread per task on JDK 21+, otherwise a cached pool of daemon platform threads
+    static ExecutorService perTask(String name) {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException unsupported) {
+            return Executors.newCachedThreadPool(daemon(name));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+final class UserStore {
+
+    static final int DEFAULT_ITERATIONS = 120_000;
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final int WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int MAX_QUEUED = 256;
+
+    static final class UserRecord {
+        final String username;
+        final byte[] salt;
+        final byte[] hash;
+        final int iterations;
+
+        UserRecord(String username, byte[] salt, byte[] hash, int iterations) {
+            this.username = username; this.salt = salt; this.hash = hash; this.iterations = iterations;
+        }
+
+        String[] toRecord() {
+            Base64.Encoder b64 = Base64.getEncoder();
+            return new String[] { "user", username, b64.encodeToString(salt), b64.encodeToString(hash),
+                    Integer.toString(iterations) };
+        }
+
+        static UserRecord fromRecord(String[] record) {
+            Base64.Decoder b64 = Base64.getDecoder();
+            return new UserRecord(record[1], b64.decode(record[2]), b64.decode(record[3]), Integer.parseInt(record[4]));
+        }
+    }
+
+    private final ConcurrentHashMap<String, UserRecord> users = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final UserRecord unknownUser = hash("", "", DEFAULT_ITERATIONS);
+    private final ExecutorService workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED), r -> {
+                Thread t = new Thread(r, "smartcart-password-hasher");
+                t.setDaemon(true);
+                return t;
+            });
+
+    int size() { return users.size(); }
+
+    boolean exists(String username) { return users.containsKey(username); }
+
+    Iterable<UserRecord> all() { return users.values(); }
+
+    boolean add(UserRecord record) { return users.putIfAbsent(record.username, record) == null; }
+
+    UserRecord hash(String username, String password, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        return new UserRecord(username, salt, pbkdf2(password, salt, iterations), iterations);
+    }
+
+    CompletableFuture<UserRecord> hashAsync(String username, String password) {
+        return submit(() -> hash(username, password, DEFAULT_ITERATIONS));
+    }
+
+    CompletableFuture<Boolean> verify(String username, String password) {
+        return submit(() -> {
+            UserRecord r = users.get(username);
+            // unknown users still pay for one hash so response time does not reveal which names exist
+            UserRecord check = r != null ? r : unknownUser;
+            boolean match = MessageDigest.isEqual(check.hash, pbkdf2(password, check.salt, check.iterations));
+            return r != null && match;
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, workers);
+        } catch (RejectedExecutionException busy) {
+            return CompletableFuture.failedFuture(busy);
+        }
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " unavailable", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.time.YearMonth;
+import java.util.List;
+
+final class Validators {
+
+    enum Result {
+        OK(null),
+        MISSING_DELIVERY("Please fill delivery details."),
+        BAD_PHONE("Phone must be 9 digits after +971."),
+        MISSING_CARD("Please fill all card details."),
+        BAD_CARD_NUMBER("Card number must be 16 digits."),
+        BAD_CARD_CHECKSUM("Card number is not valid."),
+        BAD_CVV("CVV must be 3 digits."),
+        BAD_EXPIRY("Expiry must be in MM/YY format and valid."),
+        CARD_EXPIRED("Card has expired."),
+        MISSING_UPI("Please fill UPI ID."),
+        BAD_UPI("UPI ID must be digits (min 6).");
+
+        final String message;
+
+        Result(String message) { this.message = message; }
+    }
+
+    private Validators() { }
+
+    static boolean digits(CharSequence s, int min, int max) {
+        int n = s.length();
+        if (n < min || n > max) return false;
+        for (int i = 0; i < n; i++) {
+            if (!digit(s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    static boolean luhn(CharSequence digits) {
+        int sum = 0;
+        boolean dbl = false;
+        for (int i = digits.length() - 1; i >= 0; i--) {
+            int d = digits.charAt(i) - '0';
+            if (dbl && (d *= 2) > 9) d -= 9;
+            sum += d;
+            dbl = !dbl;
+        }
+        return sum % 10 == 0;
+    }
+
+    // letter first, then letters/digits/underscore, 3-12 chars in total
+    static boolean username(CharSequence u) {
+        int n = u.length();
+        if (n < 3 || n > 12 || !asciiLetter(u.charAt(0))) return false;
+        for (int i = 1; i < n; i++) {
+            char c = u.charAt(i);
+            if (!asciiLetter(c) && !digit(c) && c != '_') return false;
+        }
+        return true;
+    }
+
+    static Result expiry(CharSequence mmYY, YearMonth now) {
+        if (mmYY.length() != 5 || mmYY.charAt(2) != '/' || !digit(mmYY.charAt(0)) || !digit(mmYY.charAt(1))
+                || !digit(mmYY.charAt(3)) || !digit(mmYY.charAt(4))) {
+            return Result.BAD_EXPIRY;
+        }
+        int mm = (mmYY.charAt(0) - '0') * 10 + (mmYY.charAt(1) - '0');
+        int yy = (mmYY.charAt(3) - '0') * 10 + (mmYY.charAt(4) - '0');
+        if (mm < 1 || mm > 12) return Result.BAD_EXPIRY;
+        // a card is valid through the last day of its expiry month
+        int expires = (2000 + yy) * 12 + mm;
+        int current = now.getYear() * 12 + now.getMonthValue();
+        return expires < current ? Result.CARD_EXPIRED : Result.OK;
+    }
+
+    static Result checkout(OrderService.CheckoutRequest r, YearMonth now) {
+        if (r.name.isEmpty() || r.address.isEmpty() || r.phone.isEmpty()) return Result.MISSING_DELIVERY;
+        if (!digits(r.phone, 9, 9)) return Result.BAD_PHONE;
+        switch (r.payment) {
+            case CARD:
+                if (r.cardNumber.isEmpty() || r.cardExpiry.isEmpty() || r.cardCvv.isEmpty()) return Result.MISSING_CARD;
+                if (!digits(r.cardNumber, 16, 16)) return Result.BAD_CARD_NUMBER;
+                if (!luhn(r.cardNumber)) return Result.BAD_CARD_CHECKSUM;
+                if (!digits(r.cardCvv, 3, 3)) return Result.BAD_CVV;
+                return expiry(r.cardExpiry, now);
+            case UPI:
+                if (r.upiId.isEmpty()) return Result.MISSING_UPI;
+                return digits(r.upiId, 6, Integer.MAX_VALUE) ? Result.OK : Result.BAD_UPI;
+            default:
+                return Result.OK;
+        }
+    }
+
+    // one result per request, in order, against the same month
+    static Result[] checkoutAll(List<OrderService.CheckoutRequest> batch, YearMonth now) {
+        Result[] results = new Result[batch.size()];
+        for (int i = 0; i < results.length; i++) results[i] = checkout(batch.get(i), now);
+        return results;
+    }
+
+    private static boolean digit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean asciiLetter(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+}
@@ -0,0 +1,52 @@
+#!/bin/sh
+# Compiles into ./out when sources changed and runs SmartCart with a class-data-sharing archive.
+#   ./run.sh                      start the GUI
+#   ./run.sh --headless <cmd> ... batch CLI (no AWT), see SmartCartCli
+#   ./run.sh startup [runs]       prints time to first paint and to interactive for each run
+#   ./run.sh bench [options]      micro-benchmarks compared against bench-baseline.tsv, see Bench
+# The first launch records the classes it loads into out/smartcart.jsa (JDK 13+ dynamic AppCDS);
+# later launches map that archive instead of parsing and verifying those classes again.
+# SMARTCART_CDS=off disables the archive; JAVA_OPTS is passed through.
+set -e
+cd "$(dirname "$0")"
+OUT=out
+JSA=$OUT/smartcart.jsa
+
+if [ ! -f "$OUT/SmartCartApp.class" ] || [ -n "$(find . -maxdepth 1 -name '*.java' -newer "$OUT/SmartCartApp.class")" ]; then
+    mkdir -p "$OUT"
+    javac -encoding UTF-8 -d "$OUT" ./*.java
+    rm -f "$JSA"
+fi
+
+cds() {
+    [ "$SMARTCART_CDS" = off ] && return
+    if [ -f "$JSA" ]; then
+        echo "-XX:SharedArchiveFile=$JSA -Xshare:auto"
+    else
+        # a training run: quits once interactive and dumps the loaded classes on exit; it gets an empty
+        # data directory of its own, so it neither replays nor compacts the real one
+        train=$(mktemp -d)
+        java -XX:ArchiveClassesAtExit="$JSA" -Dsmartcart.startup=exit -Dsmartcart.data="$train" -cp "$OUT" SmartCartApp \
+            >/dev/null 2>&1 || true
+        rm -rf "$train"
+        [ -f "$JSA" ] && echo "-XX:SharedArchiveFile=$JSA -Xshare:auto"
+    fi
+}
+
+case "$1" in
+    --headless)
+        shift
+        exec java $JAVA_OPTS -cp "$OUT" SmartCartCli "$@" ;;
+    bench)
+        shift
+        exec java $JAVA_OPTS -cp "$OUT" Bench --baseline bench-baseline.tsv "$@" ;;
+    startup)
+        flags=$(cds)
+        i=0
+        while [ "$i" -lt "${2:-5}" ]; do
+            java $JAVA_OPTS $flags -Dsmartcart.startup=exit -cp "$OUT" SmartCartApp
+            i=$((i + 1))
+        done ;;
+    *)
+        exec java $JAVA_OPTS $(cds) -cp "$OUT" SmartCartApp "$@" ;;
+esac